@@ -0,0 +1,41 @@
+plugins {
+    java
+    id("io.spring.dependency-management")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencyManagement {
+    imports {
+        mavenBom(org.springframework.boot.gradle.plugin.SpringBootPlugin.BOM_COORDINATES)
+    }
+}
+
+dependencies {
+    jmh(project(":"))
+    jmh("org.springframework.boot:spring-boot-starter-webflux")
+    jmh("org.springframework.boot:spring-boot-starter-data-redis-reactive")
+    jmh("io.micrometer:micrometer-core")
+    jmh("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
+    jmh("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
+}
+
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // 연산당 할당량(gc.alloc.rate.norm)을 함께 출력
+    profilers = listOf("gc")
+    // ./gradlew :benchmarks:jmh -PjmhIncludes=RedisFanOutBenchmark
+    (findProperty("jmhIncludes") as String?)?.let { includes = listOf(it) }
+}
@@ -0,0 +1,72 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.entity.ChatMessage;
+import com.seongjun.chatbackstress.service.ChatService;
+import com.seongjun.chatbackstress.utils.MessageIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 입장 시 Redis 이력 한 페이지를 HISTORY 프레임으로 바꾸는 비용 (ChatService.fromRedis → HISTORY DTO → JSON).
+ * L1 캐시 미스 때마다 실행되는 경로다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatServiceHistoryBenchmark {
+
+    @Param({"50", "100"})
+    int pageSize;
+
+    private ObjectMapper objectMapper;
+    private ChatService chatService;
+    private List<String> redisPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // 이력 변환에는 ObjectMapper만 사용
+        chatService = new ChatService(null, null, null, objectMapper, null);
+
+        LocalDateTime now = LocalDateTime.now();
+        MessageIdGenerator ids = new MessageIdGenerator(0);
+        redisPage = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            redisPage.add(objectMapper.writeValueAsString(WebSocketMessageDto.builder()
+                    .id(ids.nextId())
+                    .type("CHAT")
+                    .roomId("room-1234")
+                    .sender("user-" + i)
+                    .message("메시지 " + i + ": 오늘 회의는 3시에 시작합니다.")
+                    .timestamp(now.minusSeconds(i))
+                    .build()));
+        }
+    }
+
+    @Benchmark
+    public void redisPageToHistoryFrames(Blackhole blackhole) throws Exception {
+        for (String json : redisPage) {
+            ChatMessage message = chatService.fromRedis(json);
+            blackhole.consume(objectMapper.writeValueAsBytes(ChatService.toHistoryDto(message)));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import com.seongjun.chatbackstress.utils.ChatSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 세션 레지스트리의 입장/퇴장/조회 비용. 전체 세션 수(sessions)와 무관하게 일정해야 한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChatSessionManagerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int sessions;
+
+    @Param({"100"})
+    int sessionsPerRoom;
+
+    private ChatSessionManager sessionManager;
+    private String[] roomIds;
+    private StubWebSocketSession[] registered;
+    private StubWebSocketSession joining;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionManager = new ChatSessionManager();
+        roomIds = new String[Math.max(1, sessions / sessionsPerRoom)];
+        for (int i = 0; i < roomIds.length; i++) {
+            roomIds[i] = "room-" + i;
+        }
+        registered = new StubWebSocketSession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            registered[i] = new StubWebSocketSession("session-" + i);
+            sessionManager.addSession(roomIds[i % roomIds.length], registered[i]);
+        }
+        joining = new StubWebSocketSession("joining");
+    }
+
+    // 새 세션 입장 후 연결 종료 (레지스트리 크기는 그대로 유지)
+    @Benchmark
+    public List<String> joinAndDisconnect() {
+        sessionManager.addSession(randomRoom(), joining);
+        return sessionManager.removeSession(joining.getId());
+    }
+
+    // 방송 시 방의 세션 목록 조회
+    @Benchmark
+    public int lookupRoom() {
+        int count = 0;
+        for (Object ignored : sessionManager.getSessions(randomRoom())) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public boolean isSessionInRoom() {
+        int index = ThreadLocalRandom.current().nextInt(sessions);
+        return sessionManager.isSessionInRoom(roomIds[index % roomIds.length], registered[index]);
+    }
+
+    private String randomRoom() {
+        return roomIds[ThreadLocalRandom.current().nextInt(roomIds.length)];
+    }
+}
@@ -0,0 +1,67 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.utils.WireCodecs;
+import com.seongjun.chatbackstress.utils.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 수신 JSON 프레임 한 건의 디코딩 비용. 메시지당 할당량은 gc 프로파일러의 gc.alloc.rate.norm으로 확인한다.
+ * textDatabind는 문자열로 만든 뒤 DTO 전체를 바인딩하던 이전 방식이다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InboundDecodeBenchmark {
+
+    @Param({"CHAT", "READ"})
+    String type;
+
+    private ObjectMapper objectMapper;
+    private WireCodecs wireCodecs;
+    private byte[] frame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        wireCodecs = new WireCodecs(objectMapper);
+        frame = objectMapper.writeValueAsBytes(WebSocketMessageDto.builder()
+                .type(type)
+                .roomId("room-1234")
+                .sender("user-5678")
+                .message("안녕하세요, 오늘 회의는 3시에 시작합니다. 자료는 미리 공유해 주세요.")
+                .timestamp(LocalDateTime.now())
+                .build());
+    }
+
+    @Benchmark
+    public WebSocketMessageDto streaming() throws Exception {
+        DataBuffer payload = DefaultDataBufferFactory.sharedInstance.wrap(frame);
+        return wireCodecs.decode(WireFormat.JSON, payload);
+    }
+
+    @Benchmark
+    public WebSocketMessageDto textDatabind() throws Exception {
+        String text = new String(frame, StandardCharsets.UTF_8);
+        return objectMapper.readValue(text, WebSocketMessageDto.class);
+    }
+}
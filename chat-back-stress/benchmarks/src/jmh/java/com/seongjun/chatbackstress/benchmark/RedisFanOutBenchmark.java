@@ -0,0 +1,107 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.service.HotRoomCoalescer;
+import com.seongjun.chatbackstress.service.LocalMessageBroker;
+import com.seongjun.chatbackstress.service.RedisPubSubService;
+import com.seongjun.chatbackstress.utils.ChatSessionManager;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
+import com.seongjun.chatbackstress.utils.SessionOutbound;
+import com.seongjun.chatbackstress.utils.SessionOutboundRegistry;
+import com.seongjun.chatbackstress.utils.WireCodecs;
+import com.seongjun.chatbackstress.utils.WireFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis에서 수신한 메시지 한 건을 방의 세션들에게 전달하는 비용.
+ * roomSize에 비례해 선형으로 증가하고, 다른 방의 세션 수(otherSessions)와는 무관해야 한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedisFanOutBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    int roomSize;
+
+    @Param({"10000"})
+    int otherSessions;
+
+    private static final String ROOM_ID = "bench-room";
+
+    private SessionOutboundRegistry outboundRegistry;
+    private RedisPubSubService pubSubService;
+    private byte[] payload;
+    private Disposable.Composite consumers;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        ChatSessionManager sessionManager = new ChatSessionManager();
+        WireCodecs wireCodecs = new WireCodecs(objectMapper);
+        MessageLatencyMetrics latencyMetrics = new MessageLatencyMetrics(new SimpleMeterRegistry());
+        outboundRegistry = new SessionOutboundRegistry(new SimpleMeterRegistry(), wireCodecs, 1024,
+                SessionOutbound.OverflowPolicy.DROP_OLDEST, 4008);
+        HotRoomCoalescer coalescer = new HotRoomCoalescer(new SimpleMeterRegistry(), false,
+                Duration.ofMillis(10), 200, 64);
+        pubSubService = new RedisPubSubService(new LocalMessageBroker(), objectMapper, sessionManager, null,
+                outboundRegistry, wireCodecs, coalescer, latencyMetrics);
+        consumers = Disposables.composite();
+
+        for (int i = 0; i < roomSize; i++) {
+            register(sessionManager, ROOM_ID, "bench-" + i, blackhole);
+        }
+        for (int i = 0; i < otherSessions; i++) {
+            register(sessionManager, "other-room-" + (i % 100), "other-" + i, blackhole);
+        }
+
+        payload = objectMapper.writeValueAsBytes(WebSocketMessageDto.builder()
+                .type("CHAT")
+                .roomId(ROOM_ID)
+                .sender("bench-sender")
+                .message("hello fan-out")
+                .timestamp(LocalDateTime.now())
+                .build());
+    }
+
+    private void register(ChatSessionManager sessionManager, String roomId, String sessionId, Blackhole blackhole) {
+        StubWebSocketSession session = new StubWebSocketSession(sessionId);
+        SessionOutbound outbound = outboundRegistry.register(session, WireFormat.JSON);
+        consumers.add(outbound.messages()
+                .subscribe(message -> {
+                    blackhole.consume(message);
+                    message.release();
+                }));
+        sessionManager.addSession(roomId, session);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        consumers.dispose();
+    }
+
+    @Benchmark
+    public int dispatch() {
+        // Redis에서 받은 본문을 프레임으로 감싸는 것까지 포함해서 측정
+        return pubSubService.dispatch(ROOM_ID, payload, System.currentTimeMillis());
+    }
+}
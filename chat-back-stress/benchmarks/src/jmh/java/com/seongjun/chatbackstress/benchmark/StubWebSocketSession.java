@@ -0,0 +1,98 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 네트워크 없이 세션 관련 경로만 측정하기 위한 최소 WebSocketSession 구현
+ */
+class StubWebSocketSession implements WebSocketSession {
+    private final String id;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    // 운영 환경(Reactor Netty)과 같은 버퍼 팩토리 (세션 수가 많은 벤치마크를 위해 공유)
+    private static final DataBufferFactory BUFFER_FACTORY = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+
+    StubWebSocketSession(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public HandshakeInfo getHandshakeInfo() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataBufferFactory bufferFactory() {
+        return BUFFER_FACTORY;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Flux<WebSocketMessage> receive() {
+        return Flux.empty();
+    }
+
+    @Override
+    public Mono<Void> send(Publisher<WebSocketMessage> messages) {
+        return Flux.from(messages).doOnNext(WebSocketMessage::release).then();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public Mono<Void> close(CloseStatus status) {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<CloseStatus> closeStatus() {
+        return Mono.never();
+    }
+
+    @Override
+    public WebSocketMessage textMessage(String payload) {
+        DataBuffer buffer = BUFFER_FACTORY.wrap(payload.getBytes(StandardCharsets.UTF_8));
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, buffer);
+    }
+
+    @Override
+    public WebSocketMessage binaryMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+        return new WebSocketMessage(WebSocketMessage.Type.BINARY, payloadFactory.apply(BUFFER_FACTORY));
+    }
+
+    @Override
+    public WebSocketMessage pingMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+        return new WebSocketMessage(WebSocketMessage.Type.PING, payloadFactory.apply(BUFFER_FACTORY));
+    }
+
+    @Override
+    public WebSocketMessage pongMessage(Function<DataBufferFactory, DataBuffer> payloadFactory) {
+        return new WebSocketMessage(WebSocketMessage.Type.PONG, payloadFactory.apply(BUFFER_FACTORY));
+    }
+}
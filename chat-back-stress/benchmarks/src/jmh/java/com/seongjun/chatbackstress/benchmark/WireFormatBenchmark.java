@@ -0,0 +1,75 @@
+package com.seongjun.chatbackstress.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.utils.WireCodecs;
+import com.seongjun.chatbackstress.utils.WireFormat;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket 포맷별 메시지 한 건의 인코딩/디코딩 시간. 메시지 크기는 encode 결과에 보조 카운터 bytesPerMessage로 함께 나온다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    WireFormat format;
+
+    private WireCodecs wireCodecs;
+    private WebSocketMessageDto message;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        wireCodecs = new WireCodecs(objectMapper);
+        message = WebSocketMessageDto.builder()
+                .type("CHAT")
+                .roomId("room-1234")
+                .sender("user-5678")
+                .message("안녕하세요, 오늘 회의는 3시에 시작합니다. 자료는 미리 공유해 주세요.")
+                .timestamp(LocalDateTime.now())
+                .build();
+        encoded = wireCodecs.encode(format, message);
+    }
+
+    @Benchmark
+    public byte[] encode(MessageSize size) throws Exception {
+        byte[] bytes = wireCodecs.encode(format, message);
+        size.bytesPerMessage = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public WebSocketMessageDto decode() throws Exception {
+        DataBuffer payload = DefaultDataBufferFactory.sharedInstance.wrap(encoded);
+        return wireCodecs.decode(format, payload);
+    }
+
+    // 인코딩한 메시지 크기. EVENTS는 시간으로 나누지 않고 값 그대로 보고된다
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class MessageSize {
+        public long bytesPerMessage;
+    }
+}
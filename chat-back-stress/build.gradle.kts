@@ -64,6 +64,9 @@ dependencies {
 //    implementation("org.slf4j:slf4j-api:2.1.0-alpha1")
 
     implementation("com.fasterxml.jackson.datatype:jackson-datatype-jsr310:2.15.2")
+    // 바이너리 WebSocket 포맷 (서브프로토콜 chat.cbor / chat.smile)
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
 }
 
 tasks.withType<Test> {
@@ -1 +1,3 @@
 rootProject.name = "chat-back-stress"
+
+include("benchmarks")
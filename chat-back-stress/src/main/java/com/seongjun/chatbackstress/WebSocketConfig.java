@@ -1,8 +1,10 @@
 package com.seongjun.chatbackstress;
 
 import com.seongjun.chatbackstress.config.ChatWebSocketHandler;
+import com.seongjun.chatbackstress.service.NodeDrain;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.reactive.HandlerMapping;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
@@ -11,6 +13,7 @@ import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAd
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.reactive.CorsWebFilter;
 import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.server.WebFilter;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,16 +22,20 @@ import java.util.Map;
 @EnableWebFlux
 public class WebSocketConfig {
 
+    private static final String CHAT_PATH = "/ws/chat";
+
     private final ChatWebSocketHandler chatWebSocketHandler;
+    private final NodeDrain nodeDrain;
 
-    public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler) {
+    public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler, NodeDrain nodeDrain) {
         this.chatWebSocketHandler = chatWebSocketHandler;
+        this.nodeDrain = nodeDrain;
     }
 
     @Bean
     public HandlerMapping webSocketMapping() {
         Map<String, WebSocketHandler> map = new HashMap<>();
-        map.put("/ws/chat", chatWebSocketHandler);
+        map.put(CHAT_PATH, chatWebSocketHandler);
 
         SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
         mapping.setOrder(-1); // 우선순위 높게 설정
@@ -41,6 +48,19 @@ public class WebSocketConfig {
         return new WebSocketHandlerAdapter();
     }
 
+    // drain 중에는 새 업그레이드를 거절해서 클라이언트가 다른 노드로 붙게 한다
+    @Bean
+    public WebFilter drainingUpgradeFilter() {
+        return (exchange, chain) -> {
+            if (nodeDrain.isDraining() && CHAT_PATH.equals(exchange.getRequest().getPath().value())) {
+                exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                exchange.getResponse().getHeaders().set("Retry-After", "1");
+                return exchange.getResponse().setComplete();
+            }
+            return chain.filter(exchange);
+        };
+    }
+
     @Bean
     public CorsWebFilter corsFilter() {
         CorsConfiguration config = new CorsConfiguration();
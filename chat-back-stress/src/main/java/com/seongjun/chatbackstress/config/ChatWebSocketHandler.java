@@ -3,9 +3,21 @@ package com.seongjun.chatbackstress.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.entity.ChatMessage;
 import com.seongjun.chatbackstress.service.ChatService;
+import com.seongjun.chatbackstress.service.MessageDeduplicator;
+import com.seongjun.chatbackstress.service.ReadReceiptAggregator;
 import com.seongjun.chatbackstress.service.RedisPubSubService;
+import com.seongjun.chatbackstress.service.RoomHistoryCache;
+import com.seongjun.chatbackstress.service.RoomLanes;
+import com.seongjun.chatbackstress.service.TypingIndicators;
 import com.seongjun.chatbackstress.utils.ChatSessionManager;
+import com.seongjun.chatbackstress.utils.MessageIdGenerator;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
+import com.seongjun.chatbackstress.utils.SessionOutbound;
+import com.seongjun.chatbackstress.utils.SessionOutboundRegistry;
+import com.seongjun.chatbackstress.utils.WireCodecs;
+import com.seongjun.chatbackstress.utils.WireFormat;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
@@ -15,36 +27,49 @@ import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 public class ChatWebSocketHandler implements WebSocketHandler {
     private static final Logger log = LoggerFactory.getLogger(ChatWebSocketHandler.class);
+    private static final int HISTORY_PAGE_SIZE = 50;
     
     private final ObjectMapper objectMapper;
     private final RedisPubSubService redisPubSubService;
     private final ChatService chatService;
     private final ChatSessionManager sessionManager;
+    private final RoomHistoryCache historyCache;
+    private final SessionOutboundRegistry outboundRegistry;
+    private final WireCodecs wireCodecs;
+    private final MessageLatencyMetrics latencyMetrics;
+    private final RoomLanes roomLanes;
+    private final MessageIdGenerator idGenerator;
+    private final MessageDeduplicator deduplicator;
+    private final TypingIndicators typingIndicators;
+    private final ReadReceiptAggregator readReceipts;
 
     @PostConstruct
     public void init() {
         objectMapper.registerModule(new JavaTimeModule());
     }
 
+    // 클라이언트가 Sec-WebSocket-Protocol로 요청할 수 있는 인코딩 (없으면 JSON)
+    @Override
+    public List<String> getSubProtocols() {
+        return wireCodecs.subProtocols();
+    }
+
     @Override
     public Mono<Void> handle(WebSocketSession session) {
-        // 단일 구독자를 위한 Sink 생성
-        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
-        
-        // 세션 등록 (처음에는 세션 ID로만 등록)
-        sessionManager.addSession(session.getId(), session);
-        redisPubSubService.registerSink(session.getId(), sink);
+        WireFormat format = wireCodecs.negotiate(session);
+
+        // 크기가 제한된 세션 송신 큐 등록 (방 등록은 첫 메시지 수신 시)
+        SessionOutbound outbound = outboundRegistry.register(session, format);
 
         // 연결 상태 모니터링
         session.closeStatus()
@@ -56,28 +81,57 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                 .doOnSubscribe(sub -> log.info("WebSocket connection established for session: {}", session.getId()))
                 .doOnNext(message -> {
                     try {
-                        String payload = message.getPayloadAsText();
-                        WebSocketMessageDto dto = objectMapper.readValue(payload, WebSocketMessageDto.class);
+                        long decodeStart = System.nanoTime();
+                        WebSocketMessageDto dto = wireCodecs.decode(format, message.getPayload());
+                        latencyMetrics.recordSince(MessageLatencyMetrics.Stage.DECODE, decodeStart);
+                        // 이후 단계의 지연을 이 시각 기준으로 측정 (Redis를 거쳐 다른 노드까지 전달됨)
+                        dto.setReceivedAt(System.currentTimeMillis());
                         
                         // 첫 메시지일 때만 방에 세션 등록
-                        if (!sessionManager.isSessionInRoom(dto.getRoomId(), session)) {
-                            sessionManager.addSession(dto.getRoomId(), session);
+                        if (sessionManager.addSession(dto.getRoomId(), session)) {
+                            redisPubSubService.joinRoom(dto.getRoomId());
                             
-                            // 방 입장 시 이전 메시지 조회
+                            // 방 입장 시 이전 메시지 조회 (재연결이면 seq에 마지막으로 받은 순번이 옴)
                             if ("ENTER".equals(dto.getType())) {
-                                fetchChatHistory(dto.getRoomId(), sink);
+                                fetchChatHistory(dto.getRoomId(), dto.getSeq(), outbound);
                             }
                         }
 
+                        // 이전 이력 요청: 받은 메시지의 id 이전 메시지를 한 페이지 전송
+                        // (클라이언트의 timestamp는 클라이언트 시계라 서버 컬럼과 순서가 달라서 커서로 쓰지 않음)
+                        if ("HISTORY".equals(dto.getType()) && dto.getId() != null) {
+                            fetchOlderHistory(dto, outbound);
+                        }
+
+                        // 입력 중 표시: 저장/이력 없이 방/사용자별로 묶어서 interval마다 상태 변화만 전달
+                        if (TypingIndicators.TYPE.equals(dto.getType())) {
+                            typingIndicators.onTyping(dto.getRoomId(), dto.getSender());
+                        }
+
+                        // 읽음 확인: (방, 사용자)별 가장 큰 순번만 모았다가 주기적으로 저장하고 방에 전달
+                        if (ReadReceiptAggregator.TYPE.equals(dto.getType())) {
+                            readReceipts.onRead(dto.getRoomId(), dto.getSender(), dto.getSeq());
+                        }
+
                         if ("CHAT".equals(dto.getType())) {
-                            // 메시지 저장 후 발행
-                            chatService.save(dto)
-                                .doOnSuccess(v -> redisPubSubService.publishMessage(dto))
-                                .subscribe();
+                            typingIndicators.onMessageSent(dto.getRoomId(), dto.getSender());
+                            // 저장, 이력, 발행이 모두 같은 ID를 쓰도록 수신 시점에 부여 (클라이언트가 보낸 값은 무시)
+                            dto.setId(idGenerator.nextId());
+                            // 방별 lane에서 중복 검사, 저장 후 발행 (같은 방의 메시지는 들어온 순서대로)
+                            // 재연결 후 다시 보낸 메시지는 clientMsgId로 걸러서 저장도 발행도 하지 않음.
+                            // 순번/이력/저장 큐 단계에서 실패하면 여기서, 큐에 들어간 뒤 끝내 저장하지 못하면 write-behind의
+                            // dead letter에서 중복 표시를 지워서 클라이언트가 다시 보낸 메시지는 처리되게 함
+                            Mono<Boolean> admit = deduplicator.firstSeen(dto);
+                            Mono<Boolean> persist = chatService.save(dto)
+                                    .thenReturn(true)
+                                    .onErrorResume(e -> deduplicator.forget(dto).then(Mono.error(e)));
+                            if (!roomLanes.submit(dto.getRoomId(), admit, persist, redisPubSubService.publishMessage(dto))) {
+                                log.warn("Room {} is overloaded, dropping message from {}", dto.getRoomId(), dto.getSender());
+                            }
                         }
                     } catch (Exception e) {
                         log.error("Error processing message: ", e);
-                        sink.tryEmitError(e);
+                        outbound.fail(e);
                     }
                 })
                 .doOnComplete(() -> {
@@ -95,8 +149,7 @@ public class ChatWebSocketHandler implements WebSocketHandler {
 
         // 클라이언트로 메시지 송신
         Mono<Void> output = session.send(
-                sink.asFlux()
-                    .map(session::textMessage)
+                outbound.messages()
                     .doOnError(error -> log.error("Error sending message: ", error))
                     .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
                         .doBeforeRetry(signal -> log.warn("Retrying message send after error: {}", signal.failure().getMessage()))
@@ -114,33 +167,79 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                 });
     }
 
-    private void fetchChatHistory(String roomId, Sinks.Many<String> sink) {
+    private void fetchChatHistory(String roomId, Long lastSeq, SessionOutbound outbound) {
+        // 활성 방이면 L1 캐시에서 Redis 호출 없이 바로 전송
+        List<RoomHistoryCache.HistoryFrame> cached = historyCache.get(roomId);
+        if (cached != null) {
+            framesAfter(cached, lastSeq).forEach(frame -> sendHistoryFrame(frame.json(), outbound));
+            return;
+        }
+
+        // 읽기 전에 링을 확인해 두고, 읽는 동안 방 채널로 받은 메시지와 순번 기준으로 합친다
+        long epoch = historyCache.epoch(roomId);
         chatService.getMessages(roomId)
             .subscribeOn(Schedulers.boundedElastic())
-            .map(message -> {
-                try {
-                    WebSocketMessageDto historyDto = WebSocketMessageDto.builder()
-                            .type("HISTORY")
-                            .roomId(message.getRoomId())
-                            .sender(message.getSender())
-                            .message(message.getMessage())
-                            .timestamp(message.getTimestamp())
-                            .build();
-                    return objectMapper.writeValueAsString(historyDto);
-                } catch (Exception e) {
-                    log.error("Error serializing history message: {}", e.getMessage());
-                    return null;
-                }
-            })
-            .filter(json -> json != null)
+            .mapNotNull(this::toHistoryFrame)
+            .collectList()
+            .doOnNext(frames -> historyCache.prime(roomId, epoch, frames))
             .subscribe(
-                json -> sink.tryEmitNext(json),
+                frames -> framesAfter(frames, lastSeq).forEach(frame -> sendHistoryFrame(frame.json(), outbound)),
                 error -> log.error("Error fetching chat history: {}", error.getMessage())
             );
     }
 
+    /**
+     * 최신순 이력 중 lastSeq 이후 프레임만 고른다. 놓친 구간이 보관 범위를 넘었거나
+     * 순번을 알 수 없으면 전체를 보낸다.
+     */
+    private static List<RoomHistoryCache.HistoryFrame> framesAfter(List<RoomHistoryCache.HistoryFrame> newestFirst,
+                                                                   Long lastSeq) {
+        if (lastSeq == null || newestFirst.isEmpty()) {
+            return newestFirst;
+        }
+        int count = 0;
+        while (count < newestFirst.size() && newestFirst.get(count).seq() > lastSeq) {
+            count++;
+        }
+        // 다음 프레임이 정확히 lastSeq여야 그 사이가 빠짐없이 이어진 것
+        if (count == newestFirst.size() || newestFirst.get(count).seq() != lastSeq) {
+            return newestFirst;
+        }
+        return newestFirst.subList(0, count);
+    }
+
+    private void fetchOlderHistory(WebSocketMessageDto request, SessionOutbound outbound) {
+        chatService.getMessagesBeforeId(request.getRoomId(), request.getId(), HISTORY_PAGE_SIZE)
+            .subscribeOn(Schedulers.boundedElastic())
+            .mapNotNull(this::toHistoryFrame)
+            .subscribe(
+                frame -> sendHistoryFrame(frame.json(), outbound),
+                error -> log.error("Error fetching chat history: {}", error.getMessage())
+            );
+    }
+
+    private RoomHistoryCache.HistoryFrame toHistoryFrame(ChatMessage message) {
+        try {
+            long seq = message.getSeq() != null ? message.getSeq() : 0;
+            return new RoomHistoryCache.HistoryFrame(seq, objectMapper.writeValueAsBytes(ChatService.toHistoryDto(message)));
+        } catch (Exception e) {
+            log.error("Error serializing history message: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // 이력은 JSON으로 보관하므로 세션 포맷이 다르면 변환해서 전송
+    private void sendHistoryFrame(byte[] json, SessionOutbound outbound) {
+        try {
+            outbound.offer(wireCodecs.frame(outbound.getFormat(), json));
+        } catch (Exception e) {
+            log.error("Error encoding history message: {}", e.getMessage());
+        }
+    }
+
     private void cleanup(WebSocketSession session) {
-        sessionManager.removeSession(session.getId());
-        redisPubSubService.unregisterSink(session.getId());
+        sessionManager.removeSession(session.getId())
+                .forEach(redisPubSubService::leaveRoom);
+        outboundRegistry.unregister(session.getId());
     }
 }
@@ -0,0 +1,35 @@
+package com.seongjun.chatbackstress.config;
+
+import com.seongjun.chatbackstress.service.NodeDrain;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code GET /actuator/drain}: drain 진행 상황, {@code POST /actuator/drain}: drain 시작 (끝날 때까지 기다리지 않음)
+ *
+ * <p>인증이 없는 쓰기 작업이므로 management.server.port(8081)에만 열리고, 이 포트는 외부 Service로 노출하지 않는다.
+ */
+@Component
+@Endpoint(id = "drain")
+public class DrainEndpoint {
+    private final NodeDrain nodeDrain;
+
+    public DrainEndpoint(NodeDrain nodeDrain) {
+        this.nodeDrain = nodeDrain;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return nodeDrain.status();
+    }
+
+    @WriteOperation
+    public Map<String, Object> start() {
+        nodeDrain.drain().subscribe();
+        return nodeDrain.status();
+    }
+}
@@ -0,0 +1,18 @@
+package com.seongjun.chatbackstress.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+
+@Configuration
+public class RedisConfig {
+
+    // 노드 전체에서 하나의 Pub/Sub 연결을 공유하기 위한 리스너 컨테이너 (local 브로커에서는 Redis에 연결하지 않음)
+    @Bean
+    @ConditionalOnExpression("'${chat.broker.mode:pubsub}' != 'local'")
+    public ReactiveRedisMessageListenerContainer redisMessageListenerContainer(ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveRedisMessageListenerContainer(connectionFactory);
+    }
+}
@@ -0,0 +1,66 @@
+package com.seongjun.chatbackstress.config;
+
+import com.seongjun.chatbackstress.utils.BroadcastFrame;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.NettyPipeline;
+
+/**
+ * 세션으로 보낸 프레임의 소켓 쓰기가 끝났을 때 session.write 단계와 종단 간 지연을 기록한다.
+ *
+ * <p>송신 큐에서 꺼낸 시점이 아니라 쓰기 promise가 성공한 시점이므로 느린 소켓에서 밀린 시간까지 포함된다.
+ * 프레임의 생성 시각과 receivedAt은 {@link BroadcastFrame.Timed} 버퍼에 담겨 오므로 세션을 찾지 않는다.
+ */
+@Configuration
+public class SessionWriteMetricsConfig {
+    private static final String WRITE_PROBE = "chat.sessionWriteProbe";
+
+    @Bean
+    public NettyServerCustomizer sessionWriteMetricsCustomizer(MessageLatencyMetrics latencyMetrics) {
+        WriteProbe probe = new WriteProbe(latencyMetrics);
+        return httpServer -> httpServer.doOnChannelInit((observer, channel, remoteAddress) -> {
+            ChannelPipeline pipeline = channel.pipeline();
+            if (pipeline.get(NettyPipeline.HttpCodec) == null) {
+                return;
+            }
+            // 가장 애플리케이션 쪽에 두어 압축 등 다른 인코더가 프레임을 바꾸기 전에 본다
+            pipeline.addLast(WRITE_PROBE, probe);
+        });
+    }
+
+    @ChannelHandler.Sharable
+    private static final class WriteProbe extends ChannelOutboundHandlerAdapter {
+        private final MessageLatencyMetrics latencyMetrics;
+
+        private WriteProbe(MessageLatencyMetrics latencyMetrics) {
+            this.latencyMetrics = latencyMetrics;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof WebSocketFrame frame && frame.content() instanceof BroadcastFrame.Timed timed) {
+                // 쓰기가 끝나면 버퍼가 해제되므로 값은 미리 꺼내 둔다
+                long createdNanos = timed.getCreatedNanos();
+                long receivedAt = timed.getReceivedAt();
+                ChannelPromise tracked = promise.unvoid();
+                tracked.addListener(future -> {
+                    if (future.isSuccess()) {
+                        latencyMetrics.recordSince(MessageLatencyMetrics.Stage.SESSION_WRITE, createdNanos);
+                        latencyMetrics.recordEndToEnd(receivedAt);
+                    }
+                });
+                ctx.write(msg, tracked);
+                return;
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.seongjun.chatbackstress.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import reactor.netty.NettyPipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /ws/chat 연결에 permessage-deflate(RFC 7692)를 적용한다. 기본은 꺼져 있다(chat.websocket.deflate.enabled).
+ *
+ * <p>비용: context takeover를 쓰면 연결마다 서버 Deflater(창 32KB + 해시 테이블, 약 256KB)와 Inflater(약 40KB)가
+ * 연결이 끝날 때까지 남는다. memory-budget은 압축 해제 버퍼만 제한하므로 Deflater 메모리는 연결 수에 그대로 비례한다
+ * (1Gi 파드라면 수천 연결에서 메모리가 바닥난다). 또 압축은 수신자마다 따로 하므로 한 번 인코딩한 프레임을
+ * 모든 세션이 공유하는 이점(BroadcastFrame)이 압축된 연결에서는 사라진다.
+ *
+ * <p>min-size보다 작은 메시지는 압축하지 않고 그대로 보낸다.
+ * context-takeover가 false이면 클라이언트가 요청하지 않아도 응답에 server_no_context_takeover를 넣고
+ * (RFC 7692 7.1.1.1에서 허용) 클라이언트에도 client_no_context_takeover를 요청한다. 서버는 메시지마다 압축기를 새로
+ * 만들고 바로 해제하므로 유휴 연결이 deflate 상태를 들고 있지 않는다. 대신 압축률이 떨어지고 CPU를 더 쓴다.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "chat.websocket.deflate", name = "enabled", havingValue = "true")
+public class WebSocketCompressionConfig {
+    private static final String EXTENSION_HANDLER = "chat.wsDeflateExtension";
+    private static final String RAW_METER = "chat.wsDeflateRawMeter";
+    private static final String COMPRESSED_METER = "chat.wsDeflateCompressedMeter";
+    private static final int MAX_WINDOW_SIZE = 15;
+
+    @Bean
+    public NettyServerCustomizer webSocketDeflateCustomizer(
+            MeterRegistry meterRegistry,
+            @Value("${chat.websocket.deflate.compression-level:6}") int compressionLevel,
+            @Value("${chat.websocket.deflate.min-size:256B}") DataSize minSize,
+            @Value("${chat.websocket.deflate.context-takeover:true}") boolean contextTakeover,
+            @Value("${chat.websocket.deflate.memory-budget:256KB}") DataSize memoryBudget) {
+        DeflateMeters meters = new DeflateMeters(meterRegistry);
+        int threshold = (int) minSize.toBytes();
+        WebSocketExtensionFilter skipSmallFrames = frame -> frame.content().readableBytes() < threshold;
+        WebSocketExtensionFilterProvider filterProvider = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return skipSmallFrames;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        int maxAllocation = (int) memoryBudget.toBytes();
+
+        log.info("permessage-deflate enabled: level={}, minSize={}, contextTakeover={}, memoryBudget={}",
+                compressionLevel, minSize, contextTakeover, memoryBudget);
+
+        return httpServer -> httpServer.doOnChannelInit((observer, channel, remoteAddress) -> {
+            ChannelPipeline pipeline = channel.pipeline();
+            if (pipeline.get(NettyPipeline.HttpCodec) == null) {
+                return;
+            }
+            WebSocketServerExtensionHandshaker handshaker = new PerMessageDeflateServerExtensionHandshaker(
+                    compressionLevel, false, MAX_WINDOW_SIZE, true, !contextTakeover, filterProvider, maxAllocation);
+            if (!contextTakeover) {
+                handshaker = new ServerNoContextTakeover(handshaker);
+            }
+            DeflateProbe probe = new DeflateProbe(meters);
+
+            // 업그레이드 응답 시 확장 핸들러가 자기 바로 뒤에 deflate 인코더를 넣으므로
+            // 송신 경로는 RAW_METER → deflate 인코더 → COMPRESSED_METER → WebSocket 인코더 순서가 된다
+            pipeline.addAfter(NettyPipeline.HttpCodec, EXTENSION_HANDLER, new WebSocketServerExtensionHandler(handshaker));
+            pipeline.addAfter(NettyPipeline.HttpCodec, COMPRESSED_METER, probe.compressed);
+            pipeline.addAfter(EXTENSION_HANDLER, RAW_METER, probe.raw);
+        });
+    }
+
+    /**
+     * Netty 핸드셰이커는 클라이언트가 server_no_context_takeover를 요청했을 때만 서버 압축 상태를 매번 초기화한다.
+     * 요청이 없어도 서버가 이 파라미터를 붙여 응답할 수 있으므로 요청에 넣어서 넘긴다.
+     */
+    private static final class ServerNoContextTakeover implements WebSocketServerExtensionHandshaker {
+        private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+        private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+        private final WebSocketServerExtensionHandshaker delegate;
+
+        private ServerNoContextTakeover(WebSocketServerExtensionHandshaker delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+            if (!PERMESSAGE_DEFLATE.equals(extensionData.name())
+                    || extensionData.parameters().containsKey(SERVER_NO_CONTEXT)) {
+                return delegate.handshakeExtension(extensionData);
+            }
+            Map<String, String> parameters = new HashMap<>(extensionData.parameters());
+            parameters.put(SERVER_NO_CONTEXT, null);
+            return delegate.handshakeExtension(new WebSocketExtensionData(extensionData.name(), parameters));
+        }
+    }
+
+    private static final class DeflateMeters {
+        private final Counter rawBytes;
+        private final Counter compressedBytes;
+        private final Counter skippedFrames;
+        private final Timer compressTime;
+
+        private DeflateMeters(MeterRegistry meterRegistry) {
+            this.rawBytes = Counter.builder("chat.websocket.deflate.bytes")
+                    .tag("stage", "raw")
+                    .description("Payload bytes of outbound WebSocket frames before and after permessage-deflate")
+                    .register(meterRegistry);
+            this.compressedBytes = Counter.builder("chat.websocket.deflate.bytes")
+                    .tag("stage", "compressed")
+                    .description("Payload bytes of outbound WebSocket frames before and after permessage-deflate")
+                    .register(meterRegistry);
+            this.skippedFrames = Counter.builder("chat.websocket.deflate.skipped")
+                    .description("Outbound WebSocket frames sent uncompressed (below min-size or not negotiated)")
+                    .register(meterRegistry);
+            this.compressTime = Timer.builder("chat.websocket.deflate.time")
+                    .description("Time spent compressing one outbound WebSocket frame")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * deflate 인코더 앞뒤에서 프레임 크기와 압축 시간을 잰다. 채널의 이벤트 루프에서만 호출된다.
+     */
+    private static final class DeflateProbe {
+        private final DeflateMeters meters;
+        private long pendingRawBytes;
+        private long startNanos;
+
+        private final ChannelOutboundHandlerAdapter raw = new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                if (msg instanceof WebSocketFrame frame) {
+                    pendingRawBytes = frame.content().readableBytes();
+                    startNanos = System.nanoTime();
+                }
+                ctx.write(msg, promise);
+            }
+        };
+
+        private final ChannelOutboundHandlerAdapter compressed = new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                if (msg instanceof WebSocketFrame frame && startNanos != 0) {
+                    if ((frame.rsv() & WebSocketExtension.RSV1) != 0) {
+                        meters.compressTime.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                        meters.rawBytes.increment(pendingRawBytes);
+                        meters.compressedBytes.increment(frame.content().readableBytes());
+                    } else {
+                        meters.skippedFrames.increment();
+                    }
+                    startNanos = 0;
+                }
+                ctx.write(msg, promise);
+            }
+        };
+
+        private DeflateProbe(DeflateMeters meters) {
+            this.meters = meters;
+        }
+    }
+}
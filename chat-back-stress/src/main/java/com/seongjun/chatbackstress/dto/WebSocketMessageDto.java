@@ -1,5 +1,8 @@
 package com.seongjun.chatbackstress.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -12,9 +15,15 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 public class WebSocketMessageDto {
-    private String type; // CHAT, ENTER, READ, HISTORY 등
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id; // 수신 노드가 부여한 시간순 메시지 ID. JS Number로는 정밀도가 깨지므로 문자열로 직렬화. HISTORY 요청에서는 이 ID 이전 페이지를 요청
+    private String clientMsgId; // 클라이언트가 CHAT마다 붙이는 고유 ID (선택). 재전송된 같은 메시지를 걸러낼 때 사용
+    private String type; // CHAT, ENTER, READ, HISTORY, TYPING 등
     private String roomId;
     private String sender;
     private String message;
     private LocalDateTime timestamp;
+    private Long seq; // 방별 순번. ENTER에서는 클라이언트가 마지막으로 받은 순번 (그 이후만 이력으로 받음)
+    @JsonIgnore
+    private Long receivedAt; // 수신 노드가 디코딩한 시각 (epoch ms, 지연 측정용). 브로커가 본문과 따로 전달하므로 직렬화하지 않음
 }
\ No newline at end of file
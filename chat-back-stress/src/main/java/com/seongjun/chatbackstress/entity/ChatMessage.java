@@ -7,6 +7,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Transient;
 
 import java.time.LocalDateTime;
 
@@ -22,6 +23,9 @@ public class ChatMessage {
     private String sender;
     private String message;
     private LocalDateTime timestamp;
+    private Long seq;
     @Column(name = "created_at")
     private LocalDateTime createdAt;
+    @Transient
+    private String clientMsgId; // 중복 검사 키. 저장하지 못하고 버릴 때 중복 표시를 지우는 데만 쓰고 컬럼은 없음
 }
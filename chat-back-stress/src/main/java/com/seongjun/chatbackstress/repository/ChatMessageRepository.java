@@ -1,9 +1,26 @@
 package com.seongjun.chatbackstress.repository;
 
 import com.seongjun.chatbackstress.entity.ChatMessage;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
 
 public interface ChatMessageRepository extends R2dbcRepository<ChatMessage, Long> {
-    Flux<ChatMessage> findByRoomIdOrderByCreatedAtDesc(String roomId);
-}
\ No newline at end of file
+    // 방의 최근 메시지 limit개 (최신순). 월 파티션만 있고 DEFAULT 파티션이 없으므로 플래너가 파티션 순서대로 읽는
+    // Append를 쓸 수 있어, 최근 파티션의 인덱스부터 읽고 limit을 채우면 이전 파티션은 열지 않는다.
+    // 오래 조용했던 방은 메시지가 있는 달까지 파티션마다 인덱스를 한 번씩 확인한다
+    @Query("SELECT * FROM chat_message WHERE room_id = :roomId ORDER BY created_at DESC, id DESC LIMIT :limit")
+    Flux<ChatMessage> findRecent(String roomId, int limit);
+
+    // (before, beforeId) 이전 메시지 limit개 (최신순, keyset 페이지네이션). created_at 조건으로 이후 파티션은 건너뜀
+    @Query("SELECT * FROM chat_message WHERE room_id = :roomId AND created_at <= :before "
+            + "AND (created_at, id) < (:before, :beforeId) ORDER BY created_at DESC, id DESC LIMIT :limit")
+    Flux<ChatMessage> findPageBeforeId(String roomId, LocalDateTime before, long beforeId, int limit);
+
+    // 메시지의 created_at. ID에 시각이 없는 예전 메시지를 커서로 쓸 때 사용 (파티션마다 기본 키 인덱스를 한 번씩 확인)
+    @Query("SELECT created_at FROM chat_message WHERE room_id = :roomId AND id = :id LIMIT 1")
+    Mono<LocalDateTime> findCreatedAt(String roomId, long id);
+}
@@ -0,0 +1,295 @@
+package com.seongjun.chatbackstress.service;
+
+import io.r2dbc.spi.ConnectionFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * chat_message의 월별 파티션(created_at 범위)을 관리한다.
+ *
+ * <p>시작할 때와 매일 한 번, 이번 달부터 months-ahead개월 뒤까지의 파티션을 미리 만들고
+ * retention-months보다 오래된 파티션은 테이블에서 떼어낸다(DETACH). 떼어낸 파티션은 조회와 VACUUM 대상에서 빠지며,
+ * 보관이 끝나면 운영자가 직접 DROP한다.
+ *
+ * <p>DEFAULT 파티션은 두지 않는다. DEFAULT가 있으면 플래너가 파티션 순서를 보장하지 못해 최근 이력 조회가
+ * 모든 파티션을 MergeAppend로 읽는다. 예전에 만든 DEFAULT 파티션이 남아 있으면 시작할 때 행을 월 파티션으로 옮기고 지운다.
+ *
+ * <p>파티션이 없던 예전 chat_message 테이블이 있으면 시작할 때 chat_message_legacy로 이름만 바꾸고
+ * schema.sql로 파티션 테이블을 다시 만든다. 기존 행은 시작을 막지 않도록 백그라운드에서 ID 순서로
+ * migration-batch-size개씩 옮기며, 각 배치와 같은 문장에서 chat_message_migration에 마지막 ID를 기록하므로
+ * 중간에 노드가 내려가도 다음 시작 때 이어서 옮긴다. 다 옮길 때까지는 예전 메시지가 이력 조회에 보이지 않는다.
+ */
+@Slf4j
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "chat.persist.enabled", havingValue = "true", matchIfMissing = true)
+public class ChatMessagePartitionManager {
+    static final String TABLE = "chat_message";
+    private static final String LEGACY_TABLE = "chat_message_legacy";
+    private static final String MIGRATION_TABLE = "chat_message_migration";
+    private static final String DEFAULT_PARTITION = "chat_message_default";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("uuuuMM");
+    private static final Pattern PARTITION_NAME = Pattern.compile("chat_message_p(\\d{6})");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(5);
+    // 예전 테이블의 created_at은 노드 시간대의 LocalDateTime.now()였으므로 UTC로 바꿔서 새 행과 같은 기준으로 옮긴다
+    private static final String LEGACY_CREATED_AT = "((COALESCE(created_at, timestamp) AT TIME ZONE :zone) AT TIME ZONE 'UTC')";
+
+    private final DatabaseClient databaseClient;
+    private final ConnectionFactory connectionFactory;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final int migrationBatchSize;
+    private final ZoneId legacyZone;
+    private Disposable legacyCopy;
+
+    public ChatMessagePartitionManager(DatabaseClient databaseClient,
+                                       ConnectionFactory connectionFactory,
+                                       @Value("${chat.partition.months-ahead:3}") int monthsAhead,
+                                       @Value("${chat.partition.retention-months:12}") int retentionMonths,
+                                       @Value("${chat.partition.migration-batch-size:5000}") int migrationBatchSize,
+                                       @Value("${chat.partition.legacy-zone:}") String legacyZone) {
+        this.databaseClient = databaseClient;
+        this.connectionFactory = connectionFactory;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.migrationBatchSize = migrationBatchSize;
+        this.legacyZone = legacyZone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(legacyZone);
+    }
+
+    // write-behind가 첫 배치를 쓰기 전에 이번 달 파티션이 있어야 하므로 시작 시에는 끝날 때까지 기다린다.
+    // 예전 테이블의 행 복사는 양에 비례하므로 기다리지 않는다
+    @PostConstruct
+    public void init() {
+        renameLegacyTable()
+                .then(removeDefaultPartition())
+                .then(ensurePartitions(YearMonth.now(ZoneOffset.UTC)))
+                .block(STARTUP_TIMEOUT);
+        legacyCopy = copyLegacyRows()
+                .subscribe(null, error -> log.error("Error copying {} into {}; will resume on next start: {}",
+                        LEGACY_TABLE, TABLE, error.getMessage()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (legacyCopy != null) {
+            legacyCopy.dispose();
+        }
+    }
+
+    @Scheduled(cron = "${chat.partition.maintenance-cron:0 0 3 * * *}")
+    public void maintain() {
+        ensurePartitions(YearMonth.now(ZoneOffset.UTC))
+                .then(detachExpired(YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths)))
+                .subscribe(null, error -> log.error("Error maintaining chat_message partitions: {}", error.getMessage()));
+    }
+
+    /**
+     * from부터 이번 달 + months-ahead까지의 월 파티션을 만든다.
+     */
+    Mono<Void> ensurePartitions(YearMonth from) {
+        YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(monthsAhead);
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth month = from; !month.isAfter(last); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+        return Flux.fromIterable(months)
+                .concatMap(this::createPartition)
+                .then();
+    }
+
+    private Mono<Void> createPartition(YearMonth month) {
+        LocalDate start = month.atDay(1);
+        LocalDate end = month.plusMonths(1).atDay(1);
+        return execute("CREATE TABLE IF NOT EXISTS " + partitionName(month) + " PARTITION OF " + TABLE
+                + " FOR VALUES FROM ('" + start + "') TO ('" + end + "')")
+                // 한 달을 만들지 못해도 다음 달 파티션은 계속 시도
+                .onErrorResume(e -> {
+                    log.error("Could not create partition {}: {}", partitionName(month), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    // 예전 버전이 만든 DEFAULT 파티션을 떼어내고, 그 행이 속한 달의 파티션을 만들어 옮긴 뒤 지운다.
+    // 중간에 실패해도 다시 시작하면 떼어낸 테이블부터 이어서 처리한다 (복사는 ON CONFLICT로 중복을 건너뜀)
+    private Mono<Void> removeDefaultPartition() {
+        return databaseClient.sql("SELECT relispartition FROM pg_class WHERE oid = to_regclass(:name)")
+                .bind("name", DEFAULT_PARTITION)
+                .map(row -> Boolean.TRUE.equals(row.get("relispartition", Boolean.class)))
+                .one()
+                .flatMap(attached -> {
+                    log.warn("Moving rows out of {} so {} partitions stay ordered", DEFAULT_PARTITION, TABLE);
+                    Mono<Void> detach = attached
+                            ? execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + DEFAULT_PARTITION)
+                            : Mono.empty();
+                    return detach
+                            .thenMany(databaseClient.sql("SELECT DISTINCT date_trunc('month', created_at) AS month FROM "
+                                            + DEFAULT_PARTITION)
+                                    .map(row -> YearMonth.from(row.get("month", LocalDateTime.class)))
+                                    .all())
+                            .concatMap(this::createPartition)
+                            .then(execute("INSERT INTO " + TABLE + " (id, room_id, sender, message, timestamp, created_at, seq)"
+                                    + " SELECT id, room_id, sender, message, timestamp, created_at, seq FROM " + DEFAULT_PARTITION
+                                    + " ON CONFLICT (id, created_at) DO NOTHING"))
+                            .then(execute("DROP TABLE " + DEFAULT_PARTITION))
+                            .doOnSuccess(v -> log.info("Removed {}", DEFAULT_PARTITION));
+                });
+    }
+
+    /**
+     * before보다 이전 달의 파티션을 떼어낸다.
+     */
+    Mono<Void> detachExpired(YearMonth before) {
+        return databaseClient.sql("""
+                        SELECT c.relname AS name
+                        FROM pg_inherits i
+                        JOIN pg_class c ON c.oid = i.inhrelid
+                        WHERE i.inhparent = to_regclass(:table)
+                        """)
+                .bind("table", TABLE)
+                .map(row -> row.get("name", String.class))
+                .all()
+                .filter(name -> {
+                    YearMonth month = monthOf(name);
+                    return month != null && month.isBefore(before);
+                })
+                .concatMap(name -> execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + name)
+                        .doOnSuccess(v -> log.info("Detached chat_message partition {}", name))
+                        .onErrorResume(e -> {
+                            log.error("Could not detach partition {}: {}", name, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    // 파티션이 없는 예전 테이블(relkind 'r')이면 이름을 바꾸고 파티션 테이블을 새로 만든다. 행은 copyLegacyRows가 옮긴다
+    private Mono<Void> renameLegacyTable() {
+        return databaseClient.sql("SELECT relkind::text AS kind FROM pg_class WHERE oid = to_regclass(:table)")
+                .bind("table", TABLE)
+                .map(row -> row.get("kind", String.class))
+                .one()
+                .filter("r"::equals)
+                .flatMap(kind -> {
+                    log.warn("Converting unpartitioned {} to monthly partitions; existing rows are kept in {}",
+                            TABLE, LEGACY_TABLE);
+                    return execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_TABLE)
+                            // 인덱스 이름이 남아 있으면 schema.sql의 CREATE INDEX IF NOT EXISTS가 건너뛰므로 함께 바꾼다
+                            .thenMany(databaseClient.sql("SELECT indexname FROM pg_indexes "
+                                            + "WHERE schemaname = current_schema() AND tablename = :table")
+                                    .bind("table", LEGACY_TABLE)
+                                    .map(row -> row.get("indexname", String.class))
+                                    .all())
+                            .concatMap(index -> execute("ALTER INDEX " + index + " RENAME TO " + legacyName(index)))
+                            .then(new ResourceDatabasePopulator(new ClassPathResource("schema.sql"))
+                                    .populate(connectionFactory));
+                })
+                .then();
+    }
+
+    // 예전 테이블이 남아 있고 아직 다 옮기지 않았으면 기록된 마지막 ID 다음부터 배치로 옮긴다
+    private Mono<Void> copyLegacyRows() {
+        return databaseClient.sql("SELECT to_regclass(:table) IS NOT NULL AS present")
+                .bind("table", LEGACY_TABLE)
+                .map(row -> Boolean.TRUE.equals(row.get("present", Boolean.class)))
+                .one()
+                .filter(Boolean::booleanValue)
+                .flatMap(present -> databaseClient.sql("SELECT last_id, done FROM " + MIGRATION_TABLE
+                                + " WHERE source = :source")
+                        .bind("source", LEGACY_TABLE)
+                        .map(row -> Boolean.TRUE.equals(row.get("done", Boolean.class))
+                                ? -1L : row.get("last_id", Long.class))
+                        .one()
+                        .defaultIfEmpty(0L))
+                .filter(lastId -> lastId >= 0)
+                .flatMap(lastId -> {
+                    log.info("Copying {} into {} after id {} ({} rows per batch)",
+                            LEGACY_TABLE, TABLE, lastId, migrationBatchSize);
+                    return oldestLegacyMonth()
+                            .flatMap(this::ensurePartitions)
+                            .then(copyBatch(lastId).expand(this::copyBatch).count())
+                            .flatMap(batches -> databaseClient.sql("INSERT INTO " + MIGRATION_TABLE
+                                            + " (source, last_id, done) VALUES (:source, 0, TRUE)"
+                                            + " ON CONFLICT (source) DO UPDATE SET done = TRUE")
+                                    .bind("source", LEGACY_TABLE)
+                                    .then()
+                                    .doOnSuccess(v -> log.info("Copied {} into {} in {} batches; {} can be dropped",
+                                            LEGACY_TABLE, TABLE, batches, LEGACY_TABLE)));
+                });
+    }
+
+    // afterId 다음 배치를 옮기고 같은 문장에서 진행 위치를 기록한다. 옮긴 마지막 ID, 남은 행이 없으면 empty
+    private Mono<Long> copyBatch(long afterId) {
+        return databaseClient.sql("WITH batch AS ("
+                        + " SELECT id, room_id, sender, message, timestamp, " + LEGACY_CREATED_AT + " AS created_at, seq"
+                        + " FROM " + LEGACY_TABLE + " WHERE id > :afterId ORDER BY id LIMIT :limit"
+                        + "), copied AS ("
+                        + " INSERT INTO " + TABLE + " (id, room_id, sender, message, timestamp, created_at, seq)"
+                        + " SELECT * FROM batch ON CONFLICT (id, created_at) DO NOTHING"
+                        + "), marked AS ("
+                        + " INSERT INTO " + MIGRATION_TABLE + " (source, last_id)"
+                        + " SELECT :source, MAX(id) FROM batch HAVING COUNT(*) > 0"
+                        + " ON CONFLICT (source) DO UPDATE SET last_id = EXCLUDED.last_id"
+                        + ") SELECT MAX(id) AS last_id FROM batch")
+                .bind("zone", legacyZone.getId())
+                .bind("afterId", afterId)
+                .bind("limit", migrationBatchSize)
+                .bind("source", LEGACY_TABLE)
+                .map(row -> Optional.ofNullable(row.get("last_id", Long.class)))
+                .one()
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    private Mono<YearMonth> oldestLegacyMonth() {
+        return databaseClient.sql("SELECT MIN(" + LEGACY_CREATED_AT + ") AS oldest FROM " + LEGACY_TABLE)
+                .bind("zone", legacyZone.getId())
+                .map(row -> {
+                    LocalDateTime oldest = row.get("oldest", LocalDateTime.class);
+                    return oldest != null ? YearMonth.from(oldest) : YearMonth.now(ZoneOffset.UTC);
+                })
+                .one()
+                .defaultIfEmpty(YearMonth.now(ZoneOffset.UTC));
+    }
+
+    private Mono<Void> execute(String sql) {
+        return databaseClient.sql(sql).then();
+    }
+
+    static String partitionName(YearMonth month) {
+        return TABLE + "_p" + month.format(SUFFIX);
+    }
+
+    static YearMonth monthOf(String partitionName) {
+        Matcher matcher = PARTITION_NAME.matcher(partitionName);
+        return matcher.matches() ? YearMonth.parse(matcher.group(1), SUFFIX) : null;
+    }
+
+    // PostgreSQL 식별자 길이 제한(63자) 안에서 접미사를 붙인다
+    private static String legacyName(String index) {
+        String suffix = "_legacy";
+        return index.length() + suffix.length() <= 63 ? index + suffix : index.substring(0, 63 - suffix.length()) + suffix;
+    }
+}
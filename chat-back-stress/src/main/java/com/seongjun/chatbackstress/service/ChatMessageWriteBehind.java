@@ -0,0 +1,301 @@
+package com.seongjun.chatbackstress.service;
+
+import com.seongjun.chatbackstress.entity.ChatMessage;
+import com.seongjun.chatbackstress.utils.MessageIdGenerator;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 채팅 메시지를 모아서 PostgreSQL에 multi-row INSERT로 저장하는 write-behind 파이프라인.
+ *
+ * <p>큐에 batch-size개가 쌓이거나 flush-interval이 지나면 한 번에 저장한다.
+ * 큐는 capacity로 제한되며, 가득 차면 메시지를 거절해서 메모리가 무한히 늘어나지 않도록 한다.
+ * 종료 시에는 남은 메시지를 모두 저장한다.
+ *
+ * <p>이미 발행된 메시지이므로 실패한 배치는 버리지 않는다. 재시도 후에도 실패하면 큐에 한 번 다시 넣고,
+ * 두 번째로 실패한 메시지는 한 건씩 따로 저장해서 문제 있는 행만 골라낸 뒤 그 ID를 로그로 남긴다(dead letter).
+ * 버린 메시지는 중복 표시를 지워서 클라이언트가 같은 clientMsgId로 다시 보내면 저장되게 한다.
+ * 커밋됐지만 응답이 늦어 재시도한 배치가 다시 들어와도 ON CONFLICT DO NOTHING으로 건너뛴다.
+ */
+@Slf4j
+@Service
+public class ChatMessageWriteBehind {
+    private static final int COLUMNS_PER_ROW = 7;
+
+    private final DatabaseClient databaseClient;
+    private final boolean enabled;
+    private final MessageLatencyMetrics latencyMetrics;
+    private final MessageDeduplicator deduplicator;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration shutdownTimeout;
+    private final BlockingQueue<ChatMessage> queue;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    // 배치 실패로 큐에 한 번 다시 넣은 메시지 ID
+    private final Set<Long> requeued = ConcurrentHashMap.newKeySet();
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+    private final Counter requeuedCounter;
+
+    private Disposable ticker;
+
+    public ChatMessageWriteBehind(DatabaseClient databaseClient,
+                                  MeterRegistry meterRegistry,
+                                  MessageLatencyMetrics latencyMetrics,
+                                  MessageDeduplicator deduplicator,
+                                  @Value("${chat.persist.enabled:true}") boolean enabled,
+                                  @Value("${chat.persist.batch-size:500}") int batchSize,
+                                  @Value("${chat.persist.flush-interval:50ms}") Duration flushInterval,
+                                  @Value("${chat.persist.capacity:50000}") int capacity,
+                                  @Value("${chat.persist.shutdown-timeout:10s}") Duration shutdownTimeout) {
+        this.databaseClient = databaseClient;
+        this.enabled = enabled;
+        this.latencyMetrics = latencyMetrics;
+        this.deduplicator = deduplicator;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.shutdownTimeout = shutdownTimeout;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+
+        this.flushTimer = Timer.builder("chat.persist.flush")
+                .description("Time to write one batch of chat messages to PostgreSQL")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("chat.persist.batch.size")
+                .description("Number of chat messages per multi-row insert")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("chat.persist.rejected")
+                .description("Chat messages rejected because the write-behind queue was full")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.persist.failed")
+                .description("Chat messages dropped because their insert failed again after being re-queued")
+                .register(meterRegistry);
+        this.requeuedCounter = Counter.builder("chat.persist.requeued")
+                .description("Chat messages put back on the write-behind queue after a failed batch insert")
+                .register(meterRegistry);
+        meterRegistry.gauge("chat.persist.queue.size", queue, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.warn("Chat message persistence is disabled (chat.persist.enabled=false)");
+            return;
+        }
+        ticker = Flux.interval(flushInterval)
+                .subscribe(tick -> triggerFlush());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.dispose();
+        }
+        flushPending(shutdownTimeout);
+    }
+
+    /**
+     * 진행 중인 flush가 끝나기를 기다린 뒤 큐에 남은 메시지를 모두 저장한다. 최대 timeout 동안 블로킹된다.
+     */
+    public void flushPending(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (flushing.get() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // 시간이 남았을 때만 꺼낸다. 꺼낸 뒤 timeout으로 취소된 배치는 큐로 돌아간다
+        while (System.nanoTime() < deadline) {
+            List<ChatMessage> batch = drain();
+            if (batch.isEmpty()) {
+                break;
+            }
+            try {
+                flush(batch).block(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+            } catch (Exception e) {
+                log.error("Error flushing chat messages on shutdown: {}", e.getMessage());
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("{} chat messages were not persisted before shutdown", queue.size());
+        }
+    }
+
+    // 저장 대기 중인 메시지 수
+    public int pending() {
+        return queue.size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 메시지를 저장 큐에 넣는다. 필수 값이 없거나 큐가 가득 차면 에러로 완료된다.
+     * 저장이 꺼져 있으면 아무것도 하지 않는다.
+     */
+    public Mono<Void> enqueue(ChatMessage message) {
+        return Mono.defer(() -> {
+            if (!enabled) {
+                return Mono.empty();
+            }
+            // NOT NULL 컬럼이 비어 있으면 배치 전체가 실패하므로 미리 거절
+            if (message.getId() == null || message.getRoomId() == null || message.getSender() == null
+                    || message.getMessage() == null || message.getTimestamp() == null) {
+                return Mono.error(new IllegalArgumentException("Chat message is missing required fields"));
+            }
+            if (!queue.offer(message)) {
+                rejectedCounter.increment();
+                return Mono.error(new IllegalStateException("Chat message write-behind queue is full"));
+            }
+            if (queue.size() >= batchSize) {
+                triggerFlush();
+            }
+            return Mono.empty();
+        });
+    }
+
+    // 한 번에 하나의 flush만 실행. 끝났을 때 큐가 다시 찼으면 이어서 실행
+    private void triggerFlush() {
+        if (queue.isEmpty() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        flush(drain())
+                .doFinally(signal -> {
+                    flushing.set(false);
+                    if (queue.size() >= batchSize) {
+                        triggerFlush();
+                    }
+                })
+                .subscribe(null, error -> log.error("Error flushing chat messages: {}", error.getMessage()));
+    }
+
+    private List<ChatMessage> drain() {
+        List<ChatMessage> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+        queue.drainTo(batch, batchSize);
+        return batch;
+    }
+
+    // ID가 있으면 ID에 담긴 epoch ms로 재서 시간대와 무관하게 하고, 없으면 UTC created_at으로 잰다
+    private void recordPersisted(ChatMessage message) {
+        if (message.getId() != null && MessageIdGenerator.isGenerated(message.getId())) {
+            latencyMetrics.recordSinceReceived(MessageLatencyMetrics.Stage.PERSIST, MessageIdGenerator.timestampOf(message.getId()));
+        } else if (message.getCreatedAt() != null) {
+            latencyMetrics.recordSince(MessageLatencyMetrics.Stage.PERSIST, message.getCreatedAt());
+        }
+    }
+
+    private Mono<Void> flush(List<ChatMessage> batch) {
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        Timer.Sample sample = Timer.start();
+        return insertBatch(batch)
+                .retryWhen(Retry.backoff(2, Duration.ofMillis(100)))
+                .doOnSuccess(v -> {
+                    sample.stop(flushTimer);
+                    batchSizeSummary.record(batch.size());
+                    // 메시지별 저장 지연 (ID를 부여한 수신 시각부터)
+                    batch.forEach(this::recordPersisted);
+                    if (!requeued.isEmpty()) {
+                        batch.forEach(message -> requeued.remove(message.getId()));
+                    }
+                })
+                .onErrorResume(error -> recover(batch, error))
+                // 종료 timeout으로 취소되면 저장됐는지 알 수 없으므로 큐로 돌려서 남은 수에 포함 (다시 넣어도 중복 저장되지 않음)
+                .doOnCancel(() -> batch.forEach(queue::offer));
+    }
+
+    // 처음 실패한 메시지는 큐에 다시 넣고, 다시 실패한 메시지는 한 건씩 저장해서 실패한 행만 버린다
+    private Mono<Void> recover(List<ChatMessage> batch, Throwable error) {
+        log.error("Error inserting batch of {} chat messages: {}", batch.size(), error.getMessage());
+        List<ChatMessage> retried = new ArrayList<>();
+        for (ChatMessage message : batch) {
+            if (!requeued.add(message.getId())) {
+                retried.add(message);
+            } else if (queue.offer(message)) {
+                requeuedCounter.increment();
+            } else {
+                retried.add(message);
+            }
+        }
+        return Flux.fromIterable(retried)
+                .concatMap(message -> insertBatch(List.of(message))
+                        .onErrorResume(e -> {
+                            deadLetter(message, e);
+                            return Mono.empty();
+                        })
+                        .doFinally(signal -> requeued.remove(message.getId())))
+                .then();
+    }
+
+    private void deadLetter(ChatMessage message, Throwable error) {
+        failedCounter.increment();
+        log.error("Dropping chat message id={} room={} seq={} after repeated insert failures: {}",
+                message.getId(), message.getRoomId(), message.getSeq(), error.getMessage());
+        deduplicator.forget(message.getRoomId(), message.getSender(), message.getClientMsgId()).subscribe();
+    }
+
+    private Mono<Void> insertBatch(List<ChatMessage> batch) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO chat_message (id, room_id, sender, message, timestamp, created_at, seq) VALUES ");
+        for (int row = 0; row < batch.size(); row++) {
+            int base = row * COLUMNS_PER_ROW;
+            sql.append(row == 0 ? "(" : ", (")
+                    .append('$').append(base + 1).append(", ")
+                    .append('$').append(base + 2).append(", ")
+                    .append('$').append(base + 3).append(", ")
+                    .append('$').append(base + 4).append(", ")
+                    .append('$').append(base + 5).append(", ")
+                    .append('$').append(base + 6).append(", ")
+                    .append('$').append(base + 7).append(')');
+        }
+
+        // 커밋됐지만 응답을 받지 못해 재시도한 배치는 기본 키 충돌로 실패하지 않고 건너뛴다
+        sql.append(" ON CONFLICT (id, created_at) DO NOTHING");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int row = 0; row < batch.size(); row++) {
+            ChatMessage message = batch.get(row);
+            int base = row * COLUMNS_PER_ROW;
+            spec = spec.bind(base, message.getId())
+                    .bind(base + 1, message.getRoomId())
+                    .bind(base + 2, message.getSender())
+                    .bind(base + 3, message.getMessage())
+                    .bind(base + 4, message.getTimestamp())
+                    .bind(base + 5, message.getCreatedAt());
+            spec = message.getSeq() != null
+                    ? spec.bind(base + 6, message.getSeq())
+                    : spec.bindNull(base + 6, Long.class);
+        }
+        return spec.then();
+    }
+}
@@ -5,154 +5,179 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
 import com.seongjun.chatbackstress.entity.ChatMessage;
 import com.seongjun.chatbackstress.repository.ChatMessageRepository;
-import jakarta.annotation.PostConstruct;
+import com.seongjun.chatbackstress.utils.MessageIdGenerator;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.time.LocalDateTime;
-import java.util.Comparator;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ChatService {
     private final ChatMessageRepository chatMessageRepository;
-    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ChatMessageWriteBehind writeBehind;
+    private final MessageBroker broker;
     private final ObjectMapper objectMapper;
-    private static final String CHAT_KEY_PREFIX = "chat:room:";
-    private static final int MESSAGE_RETENTION = 100; // 각 방마다 최근 100개의 메시지만 유지
-
-    // @PostConstruct
-    // public void init() {
-    //     // 서버 시작 시 Redis의 모든 채팅 데이터 삭제 (선택사항)
-    //     redisTemplate.keys(CHAT_KEY_PREFIX + "*")
-    //         .flatMap(redisTemplate.opsForList()::delete)
-    //         .subscribe();
-    // }
+    private final MessageLatencyMetrics latencyMetrics;
+    static final int MESSAGE_RETENTION = 100; // 각 방마다 최근 100개의 메시지만 유지
 
     public Mono<Void> save(WebSocketMessageDto dto) {
-        LocalDateTime now = LocalDateTime.now();
-        ChatMessage entity = ChatMessage.builder()
-                .roomId(dto.getRoomId())
-                .sender(dto.getSender())
-                .message(dto.getMessage())
-                .timestamp(dto.getTimestamp() != null ? dto.getTimestamp() : now)
-                .createdAt(now)
-                .build();
+        // 방별 순번을 먼저 받아서 Redis 이력, PostgreSQL, 발행 메시지가 같은 순번을 갖도록 함
+        return broker.nextSeq(dto.getRoomId())
+                .flatMap(seq -> {
+                    dto.setSeq(seq);
+                    LocalDateTime now = LocalDateTime.now();
+                    // Redis 캐시와 PostgreSQL이 같은 timestamp를 갖도록 비어 있으면 서버 시각으로 채움
+                    if (dto.getTimestamp() == null) {
+                        dto.setTimestamp(now);
+                    }
+                    ChatMessage entity = ChatMessage.builder()
+                            .id(dto.getId())
+                            .roomId(dto.getRoomId())
+                            .sender(dto.getSender())
+                            .message(dto.getMessage())
+                            .timestamp(dto.getTimestamp())
+                            .seq(seq)
+                            .createdAt(dto.getId() != null ? MessageIdGenerator.createdAtOf(dto.getId()) : LocalDateTime.now(ZoneOffset.UTC))
+                            .clientMsgId(dto.getClientMsgId())
+                            .build();
+
+                    // PostgreSQL에는 write-behind 큐를 통해 배치로 저장
+                    Mono<Void> dbSave = writeBehind.enqueue(entity);
 
-        // PostgreSQL에 저장
-        Mono<Void> dbSave = chatMessageRepository.save(entity).then();
-        
-        // Redis에 저장
-        Mono<Void> redisSave = saveToRedis(dto);
+                    // 브로커 이력(Redis 리스트 또는 로컬 덱)에 저장
+                    Mono<Void> historySave = saveToHistory(dto);
 
-        // 두 저장소에 모두 저장
-        return Mono.when(dbSave, redisSave);
+                    // 두 저장소에 모두 저장
+                    return Mono.when(dbSave, historySave);
+                });
     }
 
-    private Mono<Void> saveToRedis(WebSocketMessageDto dto) {
+    private Mono<Void> saveToHistory(WebSocketMessageDto dto) {
         try {
             String json = objectMapper.writeValueAsString(dto);
-            String key = CHAT_KEY_PREFIX + dto.getRoomId();
-            
-            return redisTemplate.opsForList()
-                    .leftPush(key, json)
-                    .then(redisTemplate.opsForList().trim(key, 0, MESSAGE_RETENTION - 1))
-                    .then();
+
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return broker.appendHistory(dto.getRoomId(), json)
+                        .doOnSuccess(v -> latencyMetrics.recordSince(MessageLatencyMetrics.Stage.HISTORY_APPEND, start));
+            });
         } catch (JsonProcessingException e) {
             log.error("Error serializing message for Redis: {}", e.getMessage());
             return Mono.empty();
         }
     }
 
+    /**
+     * 입장 시 보여줄 최근 이력. Redis 캐시를 우선 사용하고, 캐시가 비었거나 오래된 경우에만
+     * PostgreSQL에서 최근 MESSAGE_RETENTION개를 읽어 캐시를 다시 채운다. 비용은 페이지 크기에 비례한다.
+     */
     public Flux<ChatMessage> getMessages(String roomId) {
-        String key = CHAT_KEY_PREFIX + roomId;
-        
-        // Redis에서 메시지 조회
-        Flux<ChatMessage> redisMessages = redisTemplate.opsForList().range(key, 0, -1)
-                .map(json -> {
-                    try {
-                        WebSocketMessageDto dto = objectMapper.readValue(json, WebSocketMessageDto.class);
-                        return ChatMessage.builder()
-                                .roomId(dto.getRoomId())
-                                .sender(dto.getSender())
-                                .message(dto.getMessage())
-                                .timestamp(dto.getTimestamp())
-                                .createdAt(dto.getTimestamp())
-                                .build();
-                    } catch (JsonProcessingException e) {
-                        log.error("Error deserializing message from Redis: {}", e.getMessage());
-                        return null;
-                    }
-                })
-                .filter(message -> message != null);
-
-        // PostgreSQL에서 메시지 조회
-        Flux<ChatMessage> dbMessages = chatMessageRepository.findByRoomIdOrderByCreatedAtDesc(roomId);
-
-        // Redis에 데이터가 없거나 PostgreSQL과 불일치하는 경우 동기화 수행
-        return redisMessages
+        return broker.recentHistory(roomId, MESSAGE_RETENTION)
+                .map(this::fromRedis)
+                .filter(message -> message != null)
                 .collectList()
-                .flatMapMany(redisMsgs -> {
-                    if (redisMsgs.isEmpty()) {
+                .flatMapMany(cached -> {
+                    // PostgreSQL 저장을 끈 로컬 실행이면 브로커 이력이 전부
+                    if (!writeBehind.isEnabled()) {
+                        return Flux.fromIterable(cached);
+                    }
+                    if (cached.isEmpty()) {
                         // Redis가 비어있으면 PostgreSQL 데이터로 채움
-                        return syncFromPostgresToRedis(roomId, dbMessages);
+                        return reloadFromPostgres(roomId);
                     }
-                    
-                    // PostgreSQL의 최근 메시지 수와 Redis의 메시지 수 비교
-                    return dbMessages
-                            .collectList()
-                            .flatMapMany(dbMsgs -> {
-                                if (dbMsgs.size() > redisMsgs.size()) {
-                                    // PostgreSQL에 더 많은 메시지가 있으면 동기화
-                                    return syncFromPostgresToRedis(roomId, Flux.fromIterable(dbMsgs));
-                                }
-                                // Redis 데이터 반환
-                                return Flux.fromIterable(redisMsgs);
-                            });
-                })
-                .sort(Comparator.comparing(ChatMessage::getCreatedAt).reversed());
+                    return isStale(roomId, cached.get(0))
+                            .flatMapMany(stale -> stale ? reloadFromPostgres(roomId) : Flux.fromIterable(cached));
+                });
+    }
+
+    /**
+     * beforeId 이전 메시지를 최신순으로 최대 limit개 조회. ID가 시간순이므로 timestamp가 같아도 빠지거나 겹치지 않는다.
+     * 예전 BIGSERIAL ID는 시각을 담고 있지 않으므로 저장된 created_at을 찾아 커서로 쓴다
+     */
+    public Flux<ChatMessage> getMessagesBeforeId(String roomId, long beforeId, int limit) {
+        int pageSize = Math.min(limit, MESSAGE_RETENTION);
+        if (MessageIdGenerator.isGenerated(beforeId)) {
+            return chatMessageRepository.findPageBeforeId(roomId, MessageIdGenerator.createdAtOf(beforeId), beforeId, pageSize);
+        }
+        return chatMessageRepository.findCreatedAt(roomId, beforeId)
+                .flatMapMany(createdAt -> chatMessageRepository.findPageBeforeId(roomId, createdAt, beforeId, pageSize));
+    }
+
+    // 캐시의 가장 최근 메시지보다 PostgreSQL의 가장 최근 메시지가 더 새로우면 캐시가 누락된 것
+    private Mono<Boolean> isStale(String roomId, ChatMessage newestCached) {
+        return chatMessageRepository.findRecent(roomId, 1)
+                .next()
+                .map(newestStored -> newestCached.getId() != null
+                        ? newestStored.getId() > newestCached.getId()
+                        : newestCached.getTimestamp() == null
+                                || newestStored.getTimestamp().isAfter(newestCached.getTimestamp()))
+                .defaultIfEmpty(false);
     }
 
-    private Flux<ChatMessage> syncFromPostgresToRedis(String roomId, Flux<ChatMessage> dbMessages) {
-        return dbMessages
+    /**
+     * Redis 이력 리스트의 JSON 한 건을 엔티티로 변환. 읽을 수 없으면 null
+     */
+    public ChatMessage fromRedis(String json) {
+        try {
+            WebSocketMessageDto dto = objectMapper.readValue(json, WebSocketMessageDto.class);
+            return ChatMessage.builder()
+                    .id(dto.getId())
+                    .roomId(dto.getRoomId())
+                    .sender(dto.getSender())
+                    .message(dto.getMessage())
+                    .timestamp(dto.getTimestamp())
+                    .seq(dto.getSeq())
+                    .createdAt(dto.getId() != null ? MessageIdGenerator.createdAtOf(dto.getId()) : dto.getTimestamp())
+                    .build();
+        } catch (JsonProcessingException e) {
+            log.error("Error deserializing message from Redis: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Flux<ChatMessage> reloadFromPostgres(String roomId) {
+        return chatMessageRepository.findRecent(roomId, MESSAGE_RETENTION)
                 .collectList()
                 .flatMapMany(messages -> {
-                    String key = CHAT_KEY_PREFIX + roomId;
-                    
-                    // 최근 MESSAGE_RETENTION개의 메시지만 유지
-                    List<ChatMessage> recentMessages = messages.stream()
-                            .sorted(Comparator.comparing(ChatMessage::getCreatedAt).reversed())
-                            .limit(MESSAGE_RETENTION)
-                            .collect(Collectors.toList());
-
-                    // Redis 데이터 삭제 후 다시 저장
-                    return redisTemplate.opsForList().delete(key)
-                            .thenMany(Flux.fromIterable(recentMessages))
-                            .flatMap(message -> {
-                                try {
-                                    WebSocketMessageDto dto = WebSocketMessageDto.builder()
-                                            .type("HISTORY")
-                                            .roomId(message.getRoomId())
-                                            .sender(message.getSender())
-                                            .message(message.getMessage())
-                                            .timestamp(message.getCreatedAt())
-                                            .build();
-                                    String json = objectMapper.writeValueAsString(dto);
-                                    return redisTemplate.opsForList().rightPush(key, json)
-                                            .thenReturn(message);
-                                } catch (JsonProcessingException e) {
-                                    log.error("Error during sync: {}", e.getMessage());
-                                    return Mono.just(message);
-                                }
-                            });
+                    List<String> values = new ArrayList<>(messages.size());
+                    for (ChatMessage message : messages) {
+                        try {
+                            values.add(objectMapper.writeValueAsString(toHistoryDto(message)));
+                        } catch (JsonProcessingException e) {
+                            log.error("Error during sync: {}", e.getMessage());
+                        }
+                    }
+
+                    return broker.replaceHistory(roomId, values)
+                            .onErrorResume(e -> {
+                                log.error("Error rebuilding Redis history for room {}: {}", roomId, e.getMessage());
+                                return Mono.empty();
+                            })
+                            .thenMany(Flux.fromIterable(messages));
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * 저장된 메시지를 클라이언트에 보낼 HISTORY 메시지로 변환
+     */
+    public static WebSocketMessageDto toHistoryDto(ChatMessage message) {
+        return WebSocketMessageDto.builder()
+                .id(message.getId())
+                .type("HISTORY")
+                .roomId(message.getRoomId())
+                .sender(message.getSender())
+                .message(message.getMessage())
+                .timestamp(message.getTimestamp())
+                .seq(message.getSeq())
+                .build();
+    }
+}
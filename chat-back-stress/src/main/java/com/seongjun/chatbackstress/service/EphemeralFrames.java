@@ -0,0 +1,39 @@
+package com.seongjun.chatbackstress.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 저장하지 않고 방에 전달만 하는 서버 생성 프레임(TYPING, READ 집계).
+ * type을 항상 첫 필드로 직렬화하므로 받는 쪽은 본문을 파싱하지 않고 앞부분만 보고 구분할 수 있다.
+ */
+final class EphemeralFrames {
+
+    private EphemeralFrames() {
+    }
+
+    static byte[] prefix(String type) {
+        return ("{\"type\":\"" + type + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 삽입 순서대로 직렬화되므로 type, roomId가 앞에 온다
+    static Map<String, Object> frame(String type, String roomId) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", type);
+        frame.put("roomId", roomId);
+        return frame;
+    }
+
+    static boolean startsWith(byte[] json, byte[] prefix) {
+        if (json.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (json[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+package com.seongjun.chatbackstress.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메시지가 많은 방의 전달을 window 단위로 묶는다.
+ *
+ * <p>방의 초당 메시지 수가 rate-threshold를 넘으면 그 방은 hot 상태가 되고, window 동안 들어온 메시지를
+ * JSON 배열 하나({@code [{...},{...}]})로 이어 붙여 한 번에 전달한다. 세션마다 프레임과 flush가 배치당 한 번으로 줄고,
+ * 추가 지연은 최대 window다. 초당 메시지 수가 threshold의 절반 아래로 내려가면 다시 한 건씩 전달한다.
+ *
+ * <p>방 단위로 잠그고 그 안에서 전달하므로 방 안의 메시지 순서는 유지된다.
+ */
+@Slf4j
+@Component
+public class HotRoomCoalescer {
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final Duration window;
+    private final int rateThreshold;
+    private final int maxBatchSize;
+    private final Scheduler scheduler = Schedulers.parallel();
+    private final Map<String, RoomState> rooms = new ConcurrentHashMap<>();
+
+    private final Counter batchCounter;
+    private final DistributionSummary batchSizeSummary;
+
+    public HotRoomCoalescer(MeterRegistry meterRegistry,
+                            @Value("${chat.coalesce.enabled:false}") boolean enabled,
+                            @Value("${chat.coalesce.window:10ms}") Duration window,
+                            @Value("${chat.coalesce.rate-threshold:200}") int rateThreshold,
+                            @Value("${chat.coalesce.max-batch:64}") int maxBatchSize) {
+        this.enabled = enabled;
+        this.window = window;
+        this.rateThreshold = rateThreshold;
+        this.maxBatchSize = maxBatchSize;
+
+        this.batchCounter = Counter.builder("chat.coalesce.batches")
+                .description("Array frames delivered by hot-room coalescing")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("chat.coalesce.batch.size")
+                .description("Messages per coalesced array frame")
+                .register(meterRegistry);
+        Gauge.builder("chat.coalesce.hot.rooms", rooms, map -> map.values().stream()
+                        .filter(room -> room.hot).count())
+                .description("Rooms currently delivered in coalesced batches")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 방으로 들어온 JSON 메시지를 바로 전달하거나 현재 배치에 넣는다. 배치는 첫 메시지의 receivedAt으로 전달한다.
+     */
+    public void submit(String roomId, byte[] json, long receivedAt, MessageBroker.RoomMessageHandler dispatcher) {
+        if (!enabled) {
+            dispatcher.onMessage(roomId, json, receivedAt);
+            return;
+        }
+        RoomState room = rooms.computeIfAbsent(roomId, id -> new RoomState());
+        synchronized (room) {
+            room.countMessage(System.nanoTime(), rateThreshold);
+            // 대기 중인 배치가 있으면 순서를 지키기 위해 cold가 됐더라도 배치 뒤에 붙인다
+            if (!room.hot && room.pending == null) {
+                dispatcher.onMessage(roomId, json, receivedAt);
+                return;
+            }
+            if (room.pending == null) {
+                List<byte[]> batch = new ArrayList<>();
+                room.pending = batch;
+                room.pendingReceivedAt = receivedAt;
+                scheduler.schedule(() -> flush(roomId, room, batch, dispatcher), window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            room.pending.add(json);
+            if (room.pending.size() >= maxBatchSize) {
+                flushLocked(roomId, room, dispatcher);
+            }
+        }
+    }
+
+    // 방 채널 구독이 해제될 때 호출. 받을 세션이 없으므로 대기 중인 배치는 버린다
+    public void evict(String roomId) {
+        RoomState room = rooms.remove(roomId);
+        if (room != null) {
+            synchronized (room) {
+                room.pending = null;
+            }
+        }
+    }
+
+    // 예약된 flush. 그 사이 max-batch로 먼저 전달됐으면 아무것도 하지 않는다
+    private void flush(String roomId, RoomState room, List<byte[]> batch, MessageBroker.RoomMessageHandler dispatcher) {
+        synchronized (room) {
+            if (room.pending == batch) {
+                flushLocked(roomId, room, dispatcher);
+            }
+        }
+    }
+
+    private void flushLocked(String roomId, RoomState room, MessageBroker.RoomMessageHandler dispatcher) {
+        List<byte[]> batch = room.pending;
+        room.pending = null;
+        try {
+            dispatcher.onMessage(roomId, toArray(batch), room.pendingReceivedAt);
+            batchCounter.increment();
+            batchSizeSummary.record(batch.size());
+        } catch (Exception e) {
+            log.error("Error delivering coalesced batch of {} messages to room {}: {}", batch.size(), roomId, e.getMessage());
+        }
+    }
+
+    // 각 메시지가 이미 완성된 JSON이므로 다시 직렬화하지 않고 배열로 이어 붙인다
+    private static byte[] toArray(List<byte[]> messages) {
+        int length = messages.size() + 1; // '[' + 구분자(',') + ']'
+        for (byte[] message : messages) {
+            length += message.length;
+        }
+        byte[] array = new byte[length];
+        int position = 0;
+        array[position++] = '[';
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                array[position++] = ',';
+            }
+            byte[] message = messages.get(i);
+            System.arraycopy(message, 0, array, position, message.length);
+            position += message.length;
+        }
+        array[position] = ']';
+        return array;
+    }
+
+    private static final class RoomState {
+        // 모두 synchronized(this) 안에서만 변경 (hot은 게이지에서 읽기만 함)
+        private volatile boolean hot;
+        private long windowStart = System.nanoTime();
+        private int count;
+        private List<byte[]> pending;
+        private long pendingReceivedAt; // 배치 첫 메시지의 수신 시각
+
+        private void countMessage(long now, int threshold) {
+            if (now - windowStart >= RATE_WINDOW_NANOS) {
+                // 직전 1초의 메시지 수로 상태 전환 (절반 아래로 떨어져야 해제되도록 여유를 둠)
+                if (hot && count < threshold / 2) {
+                    hot = false;
+                }
+                windowStart = now;
+                count = 0;
+            }
+            if (++count >= threshold) {
+                hot = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.seongjun.chatbackstress.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 단일 노드용 JVM 내부 브로커 (chat.broker.mode=local).
+ *
+ * <p>발행한 스레드에서 바로 구독자를 호출하고, 이력은 방별 lock-free 덱에 보관한다.
+ * Redis 없이 전체 서버 파이프라인을 로컬에서 부하 테스트하거나 벤치마크할 때 사용한다.
+ * 노드 간 전달이 없으므로 여러 노드로 띄우면 안 된다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "local")
+public class LocalMessageBroker implements MessageBroker {
+    private final int retention = ChatService.MESSAGE_RETENTION;
+    private final Map<String, List<RoomMessageHandler>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    @Override
+    public Mono<Void> publish(String roomId, String json, long receivedAt) {
+        return Mono.fromRunnable(() -> {
+            List<RoomMessageHandler> handlers = subscribers.get(roomId);
+            if (handlers == null) {
+                return;
+            }
+            byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+            for (RoomMessageHandler handler : handlers) {
+                try {
+                    handler.onMessage(roomId, payload, receivedAt);
+                } catch (Exception e) {
+                    log.error("Error delivering message to room {}: {}", roomId, e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Override
+    public Disposable subscribe(String roomId, RoomMessageHandler handler) {
+        subscribers.computeIfAbsent(roomId, id -> new CopyOnWriteArrayList<>()).add(handler);
+        return () -> subscribers.computeIfPresent(roomId, (id, handlers) -> {
+            handlers.remove(handler);
+            return handlers.isEmpty() ? null : handlers;
+        });
+    }
+
+    @Override
+    public Mono<Long> nextSeq(String roomId) {
+        return Mono.fromSupplier(() -> sequences.computeIfAbsent(roomId, id -> new AtomicLong()).incrementAndGet());
+    }
+
+    @Override
+    public Mono<Void> appendHistory(String roomId, String json) {
+        return Mono.fromRunnable(() -> histories.computeIfAbsent(roomId, id -> new History()).push(json, retention));
+    }
+
+    @Override
+    public Mono<Void> replaceHistory(String roomId, List<String> newestFirst) {
+        return Mono.fromRunnable(() -> {
+            History history = new History();
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                history.push(newestFirst.get(i), retention);
+            }
+            histories.put(roomId, history);
+        });
+    }
+
+    @Override
+    public Flux<String> recentHistory(String roomId, int limit) {
+        return Flux.defer(() -> {
+            History history = histories.get(roomId);
+            return history != null ? Flux.fromIterable(history.newest(limit)) : Flux.empty();
+        });
+    }
+
+    // 단일 노드이므로 MessageDeduplicator의 노드 내 검사로 충분
+    @Override
+    public Mono<Boolean> markSeen(String key, Duration ttl) {
+        return Mono.just(true);
+    }
+
+    @Override
+    public Mono<Void> forgetSeen(String key) {
+        return Mono.empty();
+    }
+
+    // 앞쪽이 최신. 동시에 추가되는 동안 잠깐 retention을 넘을 수 있지만 곧바로 뒤에서 잘라낸다
+    private static final class History {
+        private final Deque<String> messages = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private void push(String json, int retention) {
+            messages.addFirst(json);
+            if (size.incrementAndGet() > retention && messages.pollLast() != null) {
+                size.decrementAndGet();
+            }
+        }
+
+        private List<String> newest(int limit) {
+            List<String> result = new ArrayList<>(Math.min(limit, size.get()));
+            Iterator<String> iterator = messages.iterator();
+            while (iterator.hasNext() && result.size() < limit) {
+                result.add(iterator.next());
+            }
+            return result;
+        }
+    }
+}
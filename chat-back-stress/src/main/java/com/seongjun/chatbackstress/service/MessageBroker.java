@@ -0,0 +1,72 @@
+package com.seongjun.chatbackstress.service;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 노드 간 방 메시지 전달과 방별 최근 이력 저장소.
+ * chat.broker.mode로 구현을 고른다: pubsub / streams는 Redis, local은 단일 노드용 JVM 내부 구현.
+ */
+public interface MessageBroker {
+
+    /**
+     * 방을 구독한 모든 노드에 JSON 메시지를 전달한다. receivedAt(수신 노드가 디코딩한 시각, epoch ms)은
+     * 본문과 별도로 전달되어 지연 측정에만 쓰이고 클라이언트에는 보이지 않는다.
+     */
+    Mono<Void> publish(String roomId, String json, long receivedAt);
+
+    /**
+     * 잃어도 되는 일회성 프레임(입력 중 표시, 읽음 집계 등) 발행. 저장되거나 재전송되지 않으며,
+     * 구현은 내구성 있는 경로(streams) 대신 가벼운 경로로 보낼 수 있다.
+     */
+    default Mono<Void> publishEphemeral(String roomId, String json) {
+        return publish(roomId, json, 0);
+    }
+
+    /**
+     * 방 메시지 구독. handler는 발행 순서대로 호출되며, 반환값을 dispose하면 해제된다.
+     */
+    Disposable subscribe(String roomId, RoomMessageHandler handler);
+
+    /**
+     * 방별 다음 순번 (1부터 증가)
+     */
+    Mono<Long> nextSeq(String roomId);
+
+    /**
+     * 최근 이력 앞쪽에 추가한다. 보관 개수를 넘는 오래된 메시지는 제거된다.
+     */
+    Mono<Void> appendHistory(String roomId, String json);
+
+    /**
+     * 최근 이력을 주어진 메시지(최신순)로 교체한다.
+     */
+    Mono<Void> replaceHistory(String roomId, List<String> newestFirst);
+
+    /**
+     * 최근 이력을 최신순으로 최대 limit개
+     */
+    Flux<String> recentHistory(String roomId, int limit);
+
+    /**
+     * 모든 노드를 통틀어 ttl 안에 key를 처음 표시했으면 true (중복 메시지 검사용)
+     */
+    Mono<Boolean> markSeen(String key, Duration ttl);
+
+    /**
+     * markSeen으로 남긴 표시를 지운다. 처리에 실패한 메시지를 다시 보냈을 때 중복으로 걸러지지 않도록 할 때 사용
+     */
+    Mono<Void> forgetSeen(String key);
+
+    @FunctionalInterface
+    interface RoomMessageHandler {
+        /**
+         * @param receivedAt 발행할 때 넘긴 수신 시각 (epoch ms). 없으면 0
+         */
+        void onMessage(String roomId, byte[] json, long receivedAt);
+    }
+}
@@ -0,0 +1,143 @@
+package com.seongjun.chatbackstress.service;
+
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 클라이언트 메시지 ID(clientMsgId)로 같은 CHAT 메시지가 두 번 저장되고 발행되는 것을 막는다.
+ *
+ * <p>먼저 노드 안의 시간 창 집합을 보고, 처음 보는 ID면 {@link MessageBroker#markSeen}으로 다른 노드에서
+ * 이미 받았는지 확인한다(Redis SET NX EX). 노드 안의 집합은 현재/이전 두 세대로 나눠 window마다(또는 현재 세대가
+ * max-entries에 닿으면) 세대를 넘기므로, 메모리는 2 × max-entries를 넘지 않는다. 부하가 커서 세대가 window보다
+ * 빨리 넘어가면 노드 안에서는 더 일찍 잊지만, Redis 키는 window 동안 남아 있으므로 중복은 계속 걸러진다.
+ *
+ * <p>clientMsgId가 없으면 검사하지 않는다. Redis에 접근할 수 없으면 메시지를 버리지 않고 통과시킨다.
+ * 저장 큐에 넣지 못했거나 재시도 끝에 버려진(dead letter) 메시지는 {@link #forget}으로 표시를 지워
+ * 클라이언트가 다시 보내면 처리되게 한다.
+ */
+@Slf4j
+@Component
+public class MessageDeduplicator {
+    private final MessageBroker broker;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final Duration window;
+    private final int maxEntries;
+
+    private volatile Set<String> current = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> previous = ConcurrentHashMap.newKeySet();
+    private volatile long generationStart = System.nanoTime();
+
+    private final Counter localDuplicates;
+    private final Counter remoteDuplicates;
+
+    public MessageDeduplicator(MessageBroker broker,
+                               MeterRegistry meterRegistry,
+                               @Value("${chat.dedup.enabled:true}") boolean enabled,
+                               @Value("${chat.dedup.window:5m}") Duration window,
+                               @Value("${chat.dedup.max-entries:100000}") int maxEntries) {
+        this.broker = broker;
+        this.enabled = enabled;
+        this.window = window;
+        this.windowNanos = window.toNanos();
+        this.maxEntries = maxEntries;
+
+        this.localDuplicates = Counter.builder("chat.dedup.duplicates")
+                .tag("source", "local")
+                .description("CHAT messages dropped because their client message ID was already seen")
+                .register(meterRegistry);
+        this.remoteDuplicates = Counter.builder("chat.dedup.duplicates")
+                .tag("source", "broker")
+                .description("CHAT messages dropped because their client message ID was already seen")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 처음 보는 메시지면 true. 같은 방, 같은 보낸 사람의 같은 clientMsgId가 window 안에 다시 오면 false.
+     * 구독할 때 검사하므로 lane에 들어가지 못한 메시지는 표시되지 않는다.
+     */
+    public Mono<Boolean> firstSeen(WebSocketMessageDto dto) {
+        if (!enabled || dto.getClientMsgId() == null || dto.getClientMsgId().isEmpty()) {
+            return Mono.just(true);
+        }
+        return Mono.defer(() -> check(dto));
+    }
+
+    /**
+     * firstSeen이 남긴 표시를 노드 안과 브로커에서 모두 지운다. 실패해도 에러를 내지 않는다 (표시는 window 뒤에 사라짐)
+     */
+    public Mono<Void> forget(WebSocketMessageDto dto) {
+        return forget(dto.getRoomId(), dto.getSender(), dto.getClientMsgId());
+    }
+
+    public Mono<Void> forget(String roomId, String sender, String clientMsgId) {
+        if (!enabled || clientMsgId == null || clientMsgId.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            String key = keyOf(roomId, sender, clientMsgId);
+            current.remove(key);
+            previous.remove(key);
+            return broker.forgetSeen(key);
+        }).onErrorResume(e -> {
+            log.warn("Could not forget duplicate mark for {}: {}", clientMsgId, e.getMessage());
+            return Mono.empty();
+        });
+    }
+
+    private static String keyOf(String roomId, String sender, String clientMsgId) {
+        return roomId + ':' + sender + ':' + clientMsgId;
+    }
+
+    private Mono<Boolean> check(WebSocketMessageDto dto) {
+        String key = keyOf(dto.getRoomId(), dto.getSender(), dto.getClientMsgId());
+        if (!markLocally(key)) {
+            localDuplicates.increment();
+            return Mono.just(false);
+        }
+        return broker.markSeen(key, window)
+                .doOnNext(first -> {
+                    if (!first) {
+                        remoteDuplicates.increment();
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Could not check duplicate message {}: {}", key, e.getMessage());
+                    return Mono.just(true);
+                })
+                .defaultIfEmpty(true);
+    }
+
+    // 두 세대 어디에도 없을 때만 현재 세대에 넣는다
+    private boolean markLocally(String key) {
+        rotateIfNeeded();
+        if (previous.contains(key)) {
+            return false;
+        }
+        return current.add(key);
+    }
+
+    private void rotateIfNeeded() {
+        if (System.nanoTime() - generationStart < windowNanos && current.size() < maxEntries) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - generationStart < windowNanos && current.size() < maxEntries) {
+                return;
+            }
+            previous = current;
+            current = ConcurrentHashMap.newKeySet();
+            generationStart = now;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.seongjun.chatbackstress.service;
+
+import com.seongjun.chatbackstress.utils.SessionOutbound;
+import com.seongjun.chatbackstress.utils.SessionOutboundRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 배포 전에 노드를 비우는 drain 모드.
+ *
+ * <p>순서는 다음과 같다.
+ * <ol>
+ *   <li>readiness를 REFUSING_TRAFFIC으로 바꾸고 새 WebSocket 업그레이드를 503으로 거절한다.</li>
+ *   <li>lane에 들어온 메시지가 저장/발행을 마칠 때까지 기다리고, write-behind와 읽음 위치를 flush한다.</li>
+ *   <li>세션을 섞어서 close-duration 동안 wave-interval마다 나눠 닫는다. 각 세션은 남은 프레임을 보낸 뒤
+ *       1012(Service Restart)와 {@code reconnect-after-ms=N} reason을 받는다. N은 0~reconnect-spread 사이 임의 값이라
+ *       클라이언트의 재연결도 한순간에 몰리지 않는다.</li>
+ *   <li>닫는 동안 들어온 메시지까지 다시 flush하고 DRAINED가 된다.</li>
+ * </ol>
+ * 모든 단계는 시작 시각 + timeout인 하나의 마감을 나눠 쓴다. 각 flush는 flush-timeout과 남은 시간 중 짧은 쪽만 기다리고,
+ * 세션 닫기는 마지막 flush 몫(flush-timeout)을 남기도록 close-duration을 줄인다. 그래서 drain 전체가 timeout을 넘지 않는다.
+ *
+ * <p>actuator {@code /actuator/drain}으로 시작하고 진행 상황을 볼 수 있다. 정상 종료(SIGTERM)에서도 다른 빈보다 먼저
+ * 같은 drain을 실행하므로, timeout은 spring.lifecycle.timeout-per-shutdown-phase보다, 그 값은 쿠버네티스
+ * terminationGracePeriodSeconds보다 짧아야 한다.
+ */
+@Slf4j
+@Component
+public class NodeDrain implements SmartLifecycle {
+    public static final int CLOSE_CODE = 1012;
+    public static final String RECONNECT_HINT = "reconnect-after-ms=";
+
+    public enum Phase {
+        RUNNING, FLUSHING, CLOSING, DRAINED
+    }
+
+    private final SessionOutboundRegistry outboundRegistry;
+    private final RoomLanes roomLanes;
+    private final ChatMessageWriteBehind writeBehind;
+    private final ReadReceiptAggregator readReceipts;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Duration timeout;
+    private final Duration flushTimeout;
+    private final Duration closeDuration;
+    private final Duration waveInterval;
+    private final Duration reconnectSpread;
+
+    private final Counter closedCounter;
+
+    private final Mono<Void> drain;
+    private volatile Phase phase = Phase.RUNNING;
+    private volatile Instant startedAt;
+    private volatile int sessionsAtStart;
+    private final AtomicInteger sessionsClosed = new AtomicInteger();
+    private volatile boolean running;
+
+    public NodeDrain(SessionOutboundRegistry outboundRegistry,
+                     RoomLanes roomLanes,
+                     ChatMessageWriteBehind writeBehind,
+                     ReadReceiptAggregator readReceipts,
+                     ApplicationEventPublisher eventPublisher,
+                     MeterRegistry meterRegistry,
+                     @Value("${chat.drain.timeout:40s}") Duration timeout,
+                     @Value("${spring.lifecycle.timeout-per-shutdown-phase:30s}") Duration shutdownPhaseTimeout,
+                     @Value("${chat.drain.flush-timeout:10s}") Duration flushTimeout,
+                     @Value("${chat.drain.close-duration:20s}") Duration closeDuration,
+                     @Value("${chat.drain.wave-interval:1s}") Duration waveInterval,
+                     @Value("${chat.drain.reconnect-spread:10s}") Duration reconnectSpread) {
+        this.outboundRegistry = outboundRegistry;
+        this.roomLanes = roomLanes;
+        this.writeBehind = writeBehind;
+        this.readReceipts = readReceipts;
+        this.eventPublisher = eventPublisher;
+        this.timeout = timeout;
+        this.flushTimeout = flushTimeout;
+        this.closeDuration = closeDuration;
+        this.waveInterval = waveInterval;
+        this.reconnectSpread = reconnectSpread;
+
+        if (timeout.compareTo(shutdownPhaseTimeout) >= 0) {
+            log.warn("chat.drain.timeout ({}) should be shorter than spring.lifecycle.timeout-per-shutdown-phase ({}); "
+                    + "shutdown may stop waiting before the node is drained", timeout, shutdownPhaseTimeout);
+        }
+
+        this.closedCounter = Counter.builder("chat.drain.closed")
+                .description("Sessions closed with a reconnect hint while draining")
+                .register(meterRegistry);
+        Gauge.builder("chat.drain.phase", this, drain -> drain.phase.ordinal())
+                .description("Drain phase (0 running, 1 flushing, 2 closing, 3 drained)")
+                .register(meterRegistry);
+
+        // 여러 번 요청해도 한 번만 실행하고 모두 같은 결과를 기다린다
+        this.drain = Mono.fromRunnable(this::runDrain)
+                .subscribeOn(Schedulers.boundedElastic())
+                .then()
+                .cache();
+    }
+
+    public boolean isDraining() {
+        return phase != Phase.RUNNING;
+    }
+
+    /**
+     * drain을 시작한다. 이미 진행 중이거나 끝났으면 같은 drain을 기다린다.
+     */
+    public Mono<Void> drain() {
+        return drain;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("phase", phase);
+        Instant started = startedAt;
+        if (started != null) {
+            status.put("startedAt", started.toString());
+            status.put("elapsedMs", Duration.between(started, Instant.now()).toMillis());
+        }
+        status.put("sessionsAtStart", sessionsAtStart);
+        status.put("sessionsClosed", sessionsClosed.get());
+        status.put("sessionsRemaining", outboundRegistry.size());
+        status.put("laneInFlight", roomLanes.inFlight());
+        status.put("persistPending", writeBehind.pending());
+        return status;
+    }
+
+    private void runDrain() {
+        startedAt = Instant.now();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        phase = Phase.FLUSHING;
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        log.info("Draining node: {} sessions connected", outboundRegistry.size());
+
+        flush(deadline);
+
+        phase = Phase.CLOSING;
+        List<SessionOutbound> sessions = new ArrayList<>(outboundRegistry.all());
+        Collections.shuffle(sessions);
+        sessionsAtStart = sessions.size();
+        // 마지막 flush 몫을 남기고 남은 시간 안에서만 나눠 닫는다
+        Duration closeWindow = min(closeDuration, remaining(deadline).minus(flushTimeout));
+        int waves = (int) Math.max(1, closeWindow.toMillis() / Math.max(1, waveInterval.toMillis()));
+        int perWave = (sessions.size() + waves - 1) / waves;
+        for (int from = 0; from < sessions.size(); from += perWave) {
+            if (from > 0) {
+                sleep(waveInterval);
+            }
+            sessions.subList(from, Math.min(sessions.size(), from + perWave)).forEach(this::close);
+        }
+        // 스냅샷 이후 등록된 세션 (업그레이드가 거절되기 직전에 들어온 연결)
+        outboundRegistry.all().forEach(this::close);
+
+        flush(deadline);
+        phase = Phase.DRAINED;
+        log.info("Node drained in {} ms: {} sessions closed",
+                Duration.between(startedAt, Instant.now()).toMillis(), sessionsClosed.get());
+    }
+
+    // lane, write-behind, 읽음 위치가 flush-timeout 하나를 나눠 쓰고, drain 마감을 넘기지 않는다
+    private void flush(long drainDeadline) {
+        long deadline = Math.min(drainDeadline, System.nanoTime() + flushTimeout.toNanos());
+        if (!roomLanes.awaitIdle(remaining(deadline))) {
+            log.warn("{} chat messages were still in room lanes while draining", roomLanes.inFlight());
+        }
+        writeBehind.flushPending(remaining(deadline));
+        Duration left = remaining(deadline);
+        if (left.isZero()) {
+            log.warn("Drain ran out of time before flushing read receipts");
+            return;
+        }
+        readReceipts.flushPending(left);
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        Duration shorter = a.compareTo(b) <= 0 ? a : b;
+        return shorter.isNegative() ? Duration.ZERO : shorter;
+    }
+
+    private void close(SessionOutbound outbound) {
+        long reconnectAfterMs = ThreadLocalRandom.current().nextLong(reconnectSpread.toMillis() + 1);
+        outbound.closeAfterFlush(new CloseStatus(CLOSE_CODE, RECONNECT_HINT + reconnectAfterMs));
+        sessionsClosed.incrementAndGet();
+        closedCounter.increment();
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // 종료 시 가장 먼저 멈추는 phase. lane, write-behind, Redis 연결이 아직 살아 있을 때 drain한다
+    @Override
+    public void stop(Runnable callback) {
+        drain.doFinally(signal -> {
+            running = false;
+            callback.run();
+        }).subscribe(null, e -> log.error("Error draining node: {}", e.getMessage()));
+    }
+
+    @Override
+    public void stop() {
+        drain.block();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,238 @@
+package com.seongjun.chatbackstress.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * READ(읽음 확인) 집계.
+ *
+ * <p>클라이언트는 {@code {"type":"READ","roomId":..,"sender":..,"seq":N}}으로 방의 N번 메시지까지 읽었다고 알린다.
+ * 서버는 (방, 사용자)별 가장 큰 순번만 메모리에 모아 두고, flush-interval마다
+ * <ul>
+ *   <li>chat_read_receipt에 multi-row upsert로 저장하고 (순번은 GREATEST로 뒤로 가지 않음)</li>
+ *   <li>방마다 "누가 어디까지 읽었는지"를 프레임 하나로 발행한다.</li>
+ * </ul>
+ * 메시지마다, 읽는 사람마다 쓰기와 전달이 생기지 않고 interval당 (방, 사용자)별 한 번으로 줄어든다.
+ *
+ * <pre>{"type":"READ","roomId":"room-1","reads":{"user-1":1042,"user-2":1040}}</pre>
+ */
+@Slf4j
+@Component
+public class ReadReceiptAggregator {
+    public static final String TYPE = "READ";
+    private static final byte[] FRAME_PREFIX = EphemeralFrames.prefix(TYPE);
+    private static final int COLUMNS_PER_ROW = 4;
+
+    private final DatabaseClient databaseClient;
+    private final MessageBroker broker;
+    private final ObjectMapper objectMapper;
+    private final boolean persistEnabled;
+    private final Duration flushInterval;
+    private final int batchSize;
+    private final Duration shutdownTimeout;
+    // (방, 사용자) -> 아직 flush하지 않은 가장 큰 읽은 순번
+    private final Map<Receipt, Long> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    private final Counter eventCounter;
+    private final Counter failedCounter;
+    private final DistributionSummary batchSizeSummary;
+    private final Timer flushTimer;
+
+    private Disposable ticker;
+
+    public ReadReceiptAggregator(DatabaseClient databaseClient,
+                                 MessageBroker broker,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chat.persist.enabled:true}") boolean persistEnabled,
+                                 @Value("${chat.read.flush-interval:1s}") Duration flushInterval,
+                                 @Value("${chat.read.batch-size:500}") int batchSize,
+                                 @Value("${chat.persist.shutdown-timeout:10s}") Duration shutdownTimeout) {
+        this.databaseClient = databaseClient;
+        this.broker = broker;
+        this.objectMapper = objectMapper;
+        this.persistEnabled = persistEnabled;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        this.shutdownTimeout = shutdownTimeout;
+
+        this.eventCounter = Counter.builder("chat.read.events")
+                .description("READ frames received from clients")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.read.failed")
+                .description("Read positions whose upsert failed and were queued for the next flush")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("chat.read.batch.size")
+                .description("Distinct (room, user) read positions written per flush")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.read.flush")
+                .description("Time to upsert one flush of read positions to PostgreSQL")
+                .register(meterRegistry);
+        meterRegistry.gauge("chat.read.pending", pending, Map::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker = Flux.interval(flushInterval)
+                .subscribe(tick -> triggerFlush());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.dispose();
+        }
+        flushPending(shutdownTimeout);
+    }
+
+    /**
+     * 모아 둔 읽음 위치를 바로 저장하고 발행한다. 주기 flush가 진행 중이면 그 flush가 끝나기를 기다린 뒤
+     * 그 사이 들어온 위치까지 flush한다. 기다리는 시간도 timeout에 포함된다.
+     */
+    public void flushPending(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!flushing.compareAndSet(false, true)) {
+            if (System.nanoTime() >= deadline) {
+                log.warn("Read receipt flush still running; {} read positions were not flushed", pending.size());
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        try {
+            flush().block(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())));
+        } catch (Exception e) {
+            log.error("Error flushing read receipts: {}", e.getMessage());
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    public void onRead(String roomId, String userId, Long seq) {
+        if (roomId == null || userId == null || seq == null) {
+            return;
+        }
+        eventCounter.increment();
+        pending.merge(new Receipt(roomId, userId), seq, Math::max);
+    }
+
+    /**
+     * 방 채널에서 받은 메시지가 READ 집계 프레임인지 본문을 파싱하지 않고 확인한다.
+     */
+    public static boolean isReadFrame(byte[] json) {
+        return EphemeralFrames.startsWith(json, FRAME_PREFIX);
+    }
+
+    // 한 번에 하나의 flush만 실행
+    private void triggerFlush() {
+        if (pending.isEmpty() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        flush()
+                .doFinally(signal -> flushing.set(false))
+                .subscribe(null, error -> log.error("Error flushing read receipts: {}", error.getMessage()));
+    }
+
+    private Mono<Void> flush() {
+        // 꺼낸 값과 같을 때만 제거하므로 그 사이 더 큰 순번이 들어왔으면 다음 flush에 남는다
+        Map<String, Map<String, Long>> byRoom = new LinkedHashMap<>();
+        List<Map.Entry<Receipt, Long>> batch = new ArrayList<>();
+        for (Map.Entry<Receipt, Long> entry : pending.entrySet()) {
+            Receipt receipt = entry.getKey();
+            Long seq = entry.getValue();
+            if (pending.remove(receipt, seq)) {
+                batch.add(Map.entry(receipt, seq));
+                byRoom.computeIfAbsent(receipt.roomId(), id -> new LinkedHashMap<>()).put(receipt.userId(), seq);
+            }
+        }
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        byRoom.forEach(this::publish);
+        if (!persistEnabled) {
+            return Mono.empty();
+        }
+
+        Timer.Sample sample = Timer.start();
+        LocalDateTime now = LocalDateTime.now();
+        return Flux.range(0, (batch.size() + batchSize - 1) / batchSize)
+                .concatMap(chunk -> upsert(batch.subList(chunk * batchSize, Math.min(batch.size(), (chunk + 1) * batchSize)), now))
+                .then()
+                .doOnSuccess(v -> {
+                    sample.stop(flushTimer);
+                    batchSizeSummary.record(batch.size());
+                })
+                .doOnError(error -> {
+                    // 실패한 위치는 다시 넣어서 다음 flush에 재시도 (그 사이 들어온 더 큰 값은 유지)
+                    failedCounter.increment(batch.size());
+                    batch.forEach(entry -> pending.merge(entry.getKey(), entry.getValue(), Math::max));
+                });
+    }
+
+    private Mono<Void> upsert(List<Map.Entry<Receipt, Long>> rows, LocalDateTime now) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO chat_read_receipt (room_id, user_id, last_read_seq, updated_at) VALUES ");
+        for (int row = 0; row < rows.size(); row++) {
+            int base = row * COLUMNS_PER_ROW;
+            sql.append(row == 0 ? "(" : ", (")
+                    .append('$').append(base + 1).append(", ")
+                    .append('$').append(base + 2).append(", ")
+                    .append('$').append(base + 3).append(", ")
+                    .append('$').append(base + 4).append(')');
+        }
+        sql.append(" ON CONFLICT (room_id, user_id) DO UPDATE SET")
+                .append(" last_read_seq = GREATEST(chat_read_receipt.last_read_seq, EXCLUDED.last_read_seq),")
+                .append(" updated_at = EXCLUDED.updated_at");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int row = 0; row < rows.size(); row++) {
+            Map.Entry<Receipt, Long> entry = rows.get(row);
+            int base = row * COLUMNS_PER_ROW;
+            spec = spec.bind(base, entry.getKey().roomId())
+                    .bind(base + 1, entry.getKey().userId())
+                    .bind(base + 2, entry.getValue())
+                    .bind(base + 3, now);
+        }
+        return spec.then();
+    }
+
+    private void publish(String roomId, Map<String, Long> reads) {
+        try {
+            Map<String, Object> frame = EphemeralFrames.frame(TYPE, roomId);
+            frame.put("reads", reads);
+            broker.publishEphemeral(roomId, objectMapper.writeValueAsString(frame))
+                    .subscribe(null, e -> log.error("Error publishing read receipts for room {}: {}", roomId, e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error serializing read receipts for room {}: {}", roomId, e.getMessage());
+        }
+    }
+
+    private record Receipt(String roomId, String userId) {
+    }
+}
@@ -0,0 +1,119 @@
+package com.seongjun.chatbackstress.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 채팅 이력 리스트에 메시지를 추가한다.
+ *
+ * <p>같은 리스트에 window 안에 들어온 메시지를 모아서 LPUSH와 LTRIM을 하나의 Lua 스크립트로 실행한다.
+ * 메시지마다 두 번 왕복하던 것이 배치당 한 번으로 줄고, 스크립트는 원자적으로 실행되므로
+ * 리스트가 보관 개수를 넘는 순간이 외부에 보이지 않는다.
+ */
+@Slf4j
+@Service
+public class RedisHistoryAppender {
+    // KEYS[1] = 리스트 키, ARGV[1] = 보관 개수, ARGV[2..] = 오래된 순서의 메시지
+    private static final RedisScript<Long> APPEND_SCRIPT = RedisScript.of("""
+            redis.call('LPUSH', KEYS[1], unpack(ARGV, 2))
+            redis.call('LTRIM', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+            return redis.call('LLEN', KEYS[1])
+            """, Long.class);
+
+    // KEYS[1] = 리스트 키, ARGV = 앞에서부터 채울 메시지
+    private static final RedisScript<Long> REPLACE_SCRIPT = RedisScript.of("""
+            redis.call('DEL', KEYS[1])
+            if #ARGV > 0 then
+                redis.call('RPUSH', KEYS[1], unpack(ARGV))
+            end
+            return #ARGV
+            """, Long.class);
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final int retention;
+    private final Scheduler scheduler = Schedulers.parallel();
+    private final Map<String, PendingBatch> pending = new ConcurrentHashMap<>();
+
+    public RedisHistoryAppender(ReactiveRedisTemplate<String, String> redisTemplate,
+                                @Value("${chat.history.append-window:2ms}") Duration window,
+                                @Value("${chat.history.append-max-batch:100}") int maxBatchSize) {
+        this.redisTemplate = redisTemplate;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.retention = ChatService.MESSAGE_RETENTION;
+    }
+
+    /**
+     * 메시지를 리스트 앞쪽에 추가한다. 같은 배치의 메시지가 모두 기록되면 완료된다.
+     */
+    public Mono<Void> append(String key, String value) {
+        return Mono.defer(() -> {
+            boolean[] flags = new boolean[2]; // [새 배치 생성, 즉시 flush]
+            PendingBatch batch = pending.compute(key, (k, current) -> {
+                PendingBatch target = current;
+                if (target == null) {
+                    target = new PendingBatch();
+                    flags[0] = true;
+                }
+                target.values.add(value);
+                flags[1] = target.values.size() >= maxBatchSize;
+                return target;
+            });
+
+            if (flags[1]) {
+                flush(key, batch);
+            } else if (flags[0]) {
+                scheduler.schedule(() -> flush(key, batch), window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            return batch.done.asMono();
+        });
+    }
+
+    /**
+     * 리스트를 주어진 메시지로 교체한다. 삭제와 재적재를 한 번의 왕복으로 처리한다.
+     */
+    public Mono<Void> replace(String key, List<String> values) {
+        return redisTemplate.execute(REPLACE_SCRIPT, List.of(key), values).then();
+    }
+
+    // 맵에서 먼저 떼어낸 쪽만 실행하므로 같은 배치가 두 번 기록되지 않는다
+    private void flush(String key, PendingBatch batch) {
+        if (!pending.remove(key, batch)) {
+            return;
+        }
+        List<String> args = new ArrayList<>(batch.values.size() + 1);
+        args.add(String.valueOf(retention));
+        args.addAll(batch.values);
+
+        redisTemplate.execute(APPEND_SCRIPT, List.of(key), args)
+                .then()
+                .subscribe(
+                        null,
+                        error -> {
+                            log.error("Error appending {} messages to {}: {}", batch.values.size(), key, error.getMessage());
+                            batch.done.tryEmitError(error);
+                        },
+                        batch.done::tryEmitEmpty);
+    }
+
+    private static final class PendingBatch {
+        private final List<String> values = new ArrayList<>(); // compute 안에서만 변경
+        private final Sinks.Empty<Void> done = Sinks.empty();
+    }
+}
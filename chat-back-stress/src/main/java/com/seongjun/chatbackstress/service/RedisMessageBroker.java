@@ -0,0 +1,154 @@
+package com.seongjun.chatbackstress.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Redis 브로커 (chat.broker.mode=pubsub | streams).
+ *
+ * <p>pubsub는 방마다 채널을 구독한다. streams는 채팅 메시지를 {@link RedisStreamBroker}의 방 해시 샤드로 보내고
+ * 로컬 방이 있는 샤드만 읽는다. 입력 중 표시·읽음 집계 같은 일회성 프레임은 streams 모드에서도 방 채널로 보내
+ * 스트림 길이와 재연결 시 다시 읽는 양을 늘리지 않는다. 이력은 방별 리스트에 {@link RedisHistoryAppender}로 추가한다.
+ *
+ * <p>pubsub 채널에는 수신 시각을 본문 앞에 {@code <receivedAt>|}로 붙여 보내고 받을 때 떼어낸다.
+ * 지연 측정을 위해 JSON을 다시 파싱하지 않아도 되고, 수신 시각이 클라이언트 프레임과 이력에 남지 않는다.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnExpression("'${chat.broker.mode:pubsub}' != 'local'")
+public class RedisMessageBroker implements MessageBroker {
+    private static final String ROOM_CHANNEL_PREFIX = "chat:channel:";
+    private static final String CHAT_KEY_PREFIX = "chat:room:";
+    private static final String SEQ_KEY_PREFIX = "chat:seq:";
+    private static final String DEDUP_KEY_PREFIX = "chat:dedup:";
+    private static final char ENVELOPE_SEPARATOR = '|';
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ReactiveRedisMessageListenerContainer container;
+    private final RedisHistoryAppender historyAppender;
+    private final RedisStreamBroker streamBroker;
+    // streams 모드에서 이 노드가 구독 중인 방
+    private final Map<String, RoomMessageHandler> streamSubscribers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (streamBroker.isEnabled()) {
+            streamBroker.start((roomId, json, receivedAt) -> {
+                RoomMessageHandler handler = streamSubscribers.get(roomId);
+                if (handler != null) {
+                    handler.onMessage(roomId, json, receivedAt);
+                }
+            });
+        }
+    }
+
+    @Override
+    public Mono<Void> publish(String roomId, String json, long receivedAt) {
+        return streamBroker.isEnabled()
+                ? streamBroker.publish(roomId, json, receivedAt).then()
+                : redisTemplate.convertAndSend(channelOf(roomId), String.valueOf(receivedAt) + ENVELOPE_SEPARATOR + json).then();
+    }
+
+    @Override
+    public Mono<Void> publishEphemeral(String roomId, String json) {
+        return redisTemplate.convertAndSend(channelOf(roomId), "0" + ENVELOPE_SEPARATOR + json).then();
+    }
+
+    @Override
+    public Disposable subscribe(String roomId, RoomMessageHandler handler) {
+        if (streamBroker.isEnabled()) {
+            if (streamSubscribers.put(roomId, handler) == null) {
+                streamBroker.join(roomId);
+            }
+            Disposable ephemeral = receiveChannel(roomId, handler);
+            return () -> {
+                ephemeral.dispose();
+                if (streamSubscribers.remove(roomId, handler)) {
+                    streamBroker.leave(roomId);
+                }
+            };
+        }
+        return receiveChannel(roomId, handler);
+    }
+
+    private Disposable receiveChannel(String roomId, RoomMessageHandler handler) {
+        // 본문은 byte[] 그대로 받아서 JSON 세션에는 문자열 디코딩/재인코딩 없이 공유 프레임으로 감싼다
+        return container.receive(List.of(ChannelTopic.of(channelOf(roomId))),
+                        SerializationPair.fromSerializer(RedisSerializer.string()),
+                        SerializationPair.byteArray())
+                .doOnNext(message -> unwrap(roomId, message.getMessage(), handler))
+                .doOnError(error -> log.error("Redis subscription error for room {}: {}", roomId, error.getMessage()))
+                .retry()
+                .subscribe();
+    }
+
+    @Override
+    public Mono<Long> nextSeq(String roomId) {
+        return redisTemplate.opsForValue().increment(SEQ_KEY_PREFIX + roomId);
+    }
+
+    @Override
+    public Mono<Void> appendHistory(String roomId, String json) {
+        // LPUSH + LTRIM을 방별 배치로 묶어 한 번에 실행
+        return historyAppender.append(CHAT_KEY_PREFIX + roomId, json);
+    }
+
+    @Override
+    public Mono<Void> replaceHistory(String roomId, List<String> newestFirst) {
+        // 삭제 후 다시 저장 (한 번의 호출)
+        return historyAppender.replace(CHAT_KEY_PREFIX + roomId, newestFirst);
+    }
+
+    @Override
+    public Flux<String> recentHistory(String roomId, int limit) {
+        return redisTemplate.opsForList().range(CHAT_KEY_PREFIX + roomId, 0, limit - 1);
+    }
+
+    @Override
+    public Mono<Boolean> markSeen(String key, Duration ttl) {
+        // SET NX EX: 키가 없을 때만 만들고 ttl 뒤에 사라진다
+        return redisTemplate.opsForValue().setIfAbsent(DEDUP_KEY_PREFIX + key, "1", ttl);
+    }
+
+    @Override
+    public Mono<Void> forgetSeen(String key) {
+        return redisTemplate.delete(DEDUP_KEY_PREFIX + key).then();
+    }
+
+    // {@code <receivedAt>|<JSON>}에서 수신 시각을 떼어낸다. 구분자가 없으면(예전 노드가 보낸 본문) 0
+    private static void unwrap(String roomId, byte[] payload, RoomMessageHandler handler) {
+        long receivedAt = 0;
+        int position = 0;
+        while (position < payload.length && payload[position] >= '0' && payload[position] <= '9') {
+            receivedAt = receivedAt * 10 + (payload[position] - '0');
+            position++;
+        }
+        if (position == payload.length || payload[position] != ENVELOPE_SEPARATOR) {
+            handler.onMessage(roomId, payload, 0);
+            return;
+        }
+        handler.onMessage(roomId, Arrays.copyOfRange(payload, position + 1, payload.length), receivedAt);
+    }
+
+    private static String channelOf(String roomId) {
+        return ROOM_CHANNEL_PREFIX + roomId;
+    }
+}
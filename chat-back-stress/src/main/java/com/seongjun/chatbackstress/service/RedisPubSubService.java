@@ -1,111 +1,176 @@
 package com.seongjun.chatbackstress.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import com.seongjun.chatbackstress.utils.BroadcastFrame;
 import com.seongjun.chatbackstress.utils.ChatSessionManager;
-import io.micrometer.observation.ObservationFilter;
-import jakarta.annotation.PostConstruct;
+import com.seongjun.chatbackstress.utils.MessageLatencyMetrics;
+import com.seongjun.chatbackstress.utils.SessionOutbound;
+import com.seongjun.chatbackstress.utils.SessionOutboundRegistry;
+import com.seongjun.chatbackstress.utils.WireCodecs;
+import com.seongjun.chatbackstress.utils.WireFormat;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
-import org.springframework.data.redis.core.ReactiveRedisTemplate;
-import org.springframework.data.redis.listener.ChannelTopic;
-import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.FluxSink;
+import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
-import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 로컬 세션이 있는 방을 {@link MessageBroker}로 구독하고, 받은 메시지를 방의 세션들에게 전달한다.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class RedisPubSubService {
-    private final ReactiveRedisTemplate<String, String> redisTemplate;
-    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final MessageBroker broker;
     private final ObjectMapper objectMapper;
     private final ChatSessionManager sessionManager;
-    private final Map<String, Sinks.Many<String>> sinks = new ConcurrentHashMap<>();
-    private final ReactiveRedisMessageListenerContainer container;
+    private final RoomHistoryCache historyCache;
+    private final SessionOutboundRegistry outboundRegistry;
+    private final WireCodecs wireCodecs;
+    private final HotRoomCoalescer coalescer;
+    private final MessageLatencyMetrics latencyMetrics;
+    // 이 노드에 세션이 있는 방의 채널 구독 (방별 참조 카운트)
+    private final Map<String, RoomSubscription> roomSubscriptions = new ConcurrentHashMap<>();
 
-    @PostConstruct
-    public void subscribe() {
-        redisTemplate.listenTo(ChannelTopic.of("chat"))
-            .doOnNext(message -> {
-                try {
-                    WebSocketMessageDto dto = objectMapper.readValue(message.getMessage(), WebSocketMessageDto.class);
-                    String roomId = dto.getRoomId();
-                    
-                    // 해당 방의 세션들에게만 메시지 전달
-                    sessionManager.getSessions(roomId).forEach(session -> {
-                        String sessionId = session.getId();
-                        Sinks.Many<String> sink = sinks.get(sessionId);
-                        if (sink != null && session.isOpen()) {
-                            sink.tryEmitNext(message.getMessage());
-                        }
-                    });
-                } catch (Exception e) {
-                    log.error("Error processing Redis message: {}", e.getMessage());
-                }
-            })
-            .doOnError(error -> log.error("Redis subscription error: {}", error.getMessage()))
-            .retry()
-            .subscribe();
+    @PreDestroy
+    public void shutdown() {
+        roomSubscriptions.forEach((roomId, room) -> {
+            room.dispose();
+            historyCache.evict(roomId);
+            coalescer.evict(roomId);
+        });
+        roomSubscriptions.clear();
     }
 
-    public void publishMessage(WebSocketMessageDto message) {
-        try {
-            String jsonMessage = objectMapper.writeValueAsString(message);
-            redisTemplate.convertAndSend("chat", jsonMessage)
-                    .doOnError(e -> log.error("Error publishing message: {}", e.getMessage()))
-                    .subscribe();
-        } catch (Exception e) {
-            log.error("Error serializing message: {}", e.getMessage());
+    /**
+     * 로컬 세션이 방에 입장할 때 호출. 첫 세션이면 방 채널을 구독한다.
+     */
+    public void joinRoom(String roomId) {
+        roomSubscriptions.compute(roomId, (id, room) -> {
+            if (room != null) {
+                room.refCount++;
+                return room;
+            }
+            log.debug("Subscribing to room channel: {}", id);
+            // 구독 직후부터 받은 메시지가 L1 이력에 빠지지 않도록 링을 먼저 연다
+            historyCache.open(id);
+            return new RoomSubscription(broker.subscribe(id, this::onRoomMessage));
+        });
+    }
+
+    /**
+     * 로컬 세션이 방을 떠날 때 호출. 마지막 세션이면 방 채널 구독을 해제한다.
+     */
+    public void leaveRoom(String roomId) {
+        roomSubscriptions.computeIfPresent(roomId, (id, room) -> {
+            if (--room.refCount > 0) {
+                return room;
+            }
+            log.debug("Unsubscribing from room channel: {}", id);
+            room.dispose();
+            // 구독이 끊기면 L1 이력을 최신으로 유지할 수 없으므로 제거
+            historyCache.evict(id);
+            coalescer.evict(id);
+            return null;
+        });
+    }
+
+    private void onRoomMessage(String roomId, byte[] json, long receivedAt) {
+        // 입력 중 표시와 읽음 집계는 이력에 남기지 않고, interval 단위로 이미 묶여 있으므로 바로 전달
+        if (TypingIndicators.isTypingFrame(json) || ReadReceiptAggregator.isReadFrame(json)) {
+            dispatch(roomId, json, receivedAt);
+            return;
         }
+        historyCache.append(roomId, json);
+        // 메시지가 많은 방은 window 단위로 묶어서 배열 프레임 하나로 전달
+        coalescer.submit(roomId, json, receivedAt, this::dispatch);
     }
 
-    public Flux<WebSocketMessage> subscribeToRoom(WebSocketSession session) {
-        return redisTemplate.listenTo(ChannelTopic.of("chat"))
-                .map(message -> {
-                    try {
-                        return session.textMessage(message.getMessage());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .doOnError(Throwable::printStackTrace);
+    /**
+     * 수신한 JSON 메시지(또는 묶음 전달용 JSON 배열)를 방에 속한 세션의 송신 큐로 전달한다.
+     * 방은 채널 이름으로, 수신 시각은 브로커가 본문과 따로 넘겨주므로 본문을 파싱하지 않고,
+     * 프레임은 포맷별로 한 번만 만들어 모든 세션이 공유한다. 비용은 방의 세션 수에 비례하며, 전달된 세션 수를 반환한다.
+     */
+    public int dispatch(String roomId, byte[] json, long receivedAt) {
+        long start = System.nanoTime();
+        latencyMetrics.recordSinceReceived(MessageLatencyMetrics.Stage.PUBSUB_RECEIVE, receivedAt);
+        BroadcastFrame[] frames = new BroadcastFrame[WireFormat.count()];
+        int delivered = 0;
+        try {
+            for (WebSocketSession session : sessionManager.getSessions(roomId)) {
+                SessionOutbound outbound = outboundRegistry.get(session.getId());
+                if (outbound == null || !session.isOpen()) {
+                    continue;
+                }
+                BroadcastFrame frame = frameFor(outbound.getFormat(), json, receivedAt, frames);
+                if (frame != null && outbound.offer(frame.retain())) {
+                    delivered++;
+                }
+            }
+        } finally {
+            for (BroadcastFrame frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+        latencyMetrics.recordSince(MessageLatencyMetrics.Stage.FANOUT, start);
+        return delivered;
     }
 
-    public Flux<String> getMessageStream() {
-        return container.receive(ChannelTopic.of("chat"))
-                .map(message -> message.getMessage())
-                .doOnError(e -> log.error("Error in message stream: {}", e.getMessage()));
+    // 포맷별 프레임은 처음 필요할 때 한 번만 인코딩
+    private BroadcastFrame frameFor(WireFormat format, byte[] json, long receivedAt, BroadcastFrame[] frames) {
+        BroadcastFrame frame = frames[format.ordinal()];
+        if (frame == null) {
+            try {
+                frame = wireCodecs.frame(format, json).withReceivedAt(receivedAt);
+                frames[format.ordinal()] = frame;
+            } catch (Exception e) {
+                log.error("Error encoding message as {}: {}", format, e.getMessage());
+            }
+        }
+        return frame;
     }
 
-    public void registerSink(String sessionId, Sinks.Many<String> sink) {
-        sinks.put(sessionId, sink);
-        
-        // Redis 채널 구독
-        container.receive(ChannelTopic.of("chat"))
-                .map(message -> message.getMessage())
-                .doOnNext(message -> {
-                    sinks.values().forEach(s -> s.tryEmitNext(message));
-                })
-                .doOnError(e -> log.error("Error in Redis subscription: {}", e.getMessage()))
-                .subscribe();
+    /**
+     * 구독할 때 메시지를 직렬화해서 발행하고, 브로커가 받으면 완료된다. 실패는 로그만 남기고 완료로 끝낸다
+     */
+    public Mono<Void> publishMessage(WebSocketMessageDto message) {
+        return Mono.defer(() -> {
+            String jsonMessage;
+            try {
+                jsonMessage = objectMapper.writeValueAsString(message);
+            } catch (Exception e) {
+                log.error("Error serializing message: {}", e.getMessage());
+                return Mono.empty();
+            }
+            long start = System.nanoTime();
+            long receivedAt = message.getReceivedAt() != null ? message.getReceivedAt() : 0;
+            return broker.publish(message.getRoomId(), jsonMessage, receivedAt)
+                    .doOnSuccess(v -> latencyMetrics.recordSince(MessageLatencyMetrics.Stage.PUBLISH, start))
+                    .onErrorResume(e -> {
+                        log.error("Error publishing message: {}", e.getMessage());
+                        return Mono.empty();
+                    });
+        });
     }
 
-    public void unregisterSink(String sessionId) {
-        sinks.remove(sessionId);
+    private static final class RoomSubscription {
+        private final Disposable subscription;
+        private int refCount = 1; // compute 안에서만 변경
+
+        private RoomSubscription(Disposable subscription) {
+            this.subscription = subscription;
+        }
+
+        private void dispose() {
+            subscription.dispose();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,301 @@
+package com.seongjun.chatbackstress.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.stream.StreamReceiver;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis Streams 기반 메시지 전달 (chat.broker.mode=streams).
+ *
+ * <p>방 ID 해시로 고른 샤드 스트림({@code chat:stream:<shard>})에 XADD하고 MAXLEN으로 길이를 제한한다.
+ * 노드는 로컬 세션이 있는 방이 속한 샤드만 읽으므로, 노드가 받는 양은 클러스터 전체가 아니라 자기 방이 속한 샤드의 양이다.
+ * 샤드마다 마지막으로 처리한 ID를 오프셋으로 들고 있다가, Redis 연결이 끊겼다 돌아오면 그 ID 다음부터 다시 읽는다.
+ * 재연결 동안 발행된 메시지도 스트림에 남아 있으므로 Pub/Sub처럼 유실되지 않는다. 단, 끊긴 사이 max-len보다 많은
+ * 메시지가 쌓이면 오래된 것부터 잘려 나가며 이 경우 chat.broker.stream.gaps로 보고한다.
+ *
+ * <p>순서는 샤드 안에서만 보장되며, 한 방은 항상 같은 샤드에 있으므로 방 안의 순서는 유지된다.
+ * 샤드의 마지막 방이 떠나면 읽기를 멈추고, 다시 방이 생기면 join을 호출한 시각의 ID부터 읽는다. 시작 ID를 Redis에
+ * 물어보지 않고 join에서 바로 정하므로 join과 첫 XREAD 사이에 발행된 메시지도 빠지지 않는다
+ * (스트림 ID의 ms는 Redis 서버 시계이므로 노드와 Redis 시계 차이만큼은 앞뒤로 어긋날 수 있다).
+ * XREAD BLOCK이 공유 연결을 막지 않도록 읽기 전용 연결을 따로 만든다 (읽는 샤드마다 연결 하나).
+ */
+@Slf4j
+@Service
+public class RedisStreamBroker {
+    static final String STREAM_KEY_PREFIX = "chat:stream:";
+    private static final String ROOM_FIELD = "r";
+    private static final String MESSAGE_FIELD = "m";
+    private static final String RECEIVED_AT_FIELD = "t";
+    private static final RecordId BEGINNING = RecordId.of("0-0");
+
+    // KEYS[1] = 스트림 키, ARGV[1] = 최대 길이(근사), ARGV[2] = 방 ID, ARGV[3] = 메시지, ARGV[4] = 수신 시각
+    private static final RedisScript<String> PUBLISH_SCRIPT = RedisScript.of("""
+            return redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 'r', ARGV[2], 'm', ARGV[3], 't', ARGV[4])
+            """, String.class);
+
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final boolean enabled;
+    private final long maxLen;
+    private final Duration pollTimeout;
+    private final int batchSize;
+    private final Shard[] shards;
+
+    private final Counter receivedCounter;
+    private final Counter reconnectCounter;
+    private final Counter gapCounter;
+
+    private volatile MessageBroker.RoomMessageHandler handler;
+    private LettuceConnectionFactory readerConnectionFactory;
+    private ReactiveRedisConnectionFactory readerFactory;
+
+    public RedisStreamBroker(ReactiveRedisConnectionFactory connectionFactory,
+                             ReactiveRedisTemplate<String, String> redisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.broker.mode:pubsub}") String mode,
+                             @Value("${chat.broker.stream.max-len:100000}") long maxLen,
+                             @Value("${chat.broker.stream.poll-timeout:100ms}") Duration pollTimeout,
+                             @Value("${chat.broker.stream.batch-size:100}") int batchSize,
+                             @Value("${chat.broker.stream.shards:16}") int shardCount) {
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = redisTemplate;
+        this.enabled = "streams".equalsIgnoreCase(mode);
+        this.maxLen = maxLen;
+        this.pollTimeout = pollTimeout;
+        this.batchSize = batchSize;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(streamKey(i));
+        }
+
+        this.receivedCounter = Counter.builder("chat.broker.stream.received")
+                .description("Records read from the chat stream shards by this node")
+                .register(meterRegistry);
+        this.reconnectCounter = Counter.builder("chat.broker.stream.reconnects")
+                .description("Times this node resumed reading a chat stream shard from its last ID")
+                .register(meterRegistry);
+        this.gapCounter = Counter.builder("chat.broker.stream.gaps")
+                .description("Resumes where records after this node's last ID had already been trimmed")
+                .register(meterRegistry);
+        Gauge.builder("chat.broker.stream.shards.read", this, broker -> broker.activeShards())
+                .description("Chat stream shards this node is reading because it has local rooms in them")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    static String streamKey(int shard) {
+        return STREAM_KEY_PREFIX + shard;
+    }
+
+    int shardOf(String roomId) {
+        return (roomId.hashCode() & Integer.MAX_VALUE) % shards.length;
+    }
+
+    public Mono<String> publish(String roomId, String json, long receivedAt) {
+        return redisTemplate.execute(PUBLISH_SCRIPT, List.of(shards[shardOf(roomId)].key),
+                        List.of(String.valueOf(maxLen), roomId, json, String.valueOf(receivedAt)))
+                .next();
+    }
+
+    /**
+     * 읽은 레코드를 넘길 handler를 정한다. 샤드는 {@link #join}으로 방이 생길 때 읽기 시작한다.
+     */
+    public void start(MessageBroker.RoomMessageHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 로컬 세션이 있는 방이 생길 때 호출. 방이 속한 샤드의 첫 방이면 그 샤드를 읽기 시작한다.
+     */
+    public void join(String roomId) {
+        Shard shard = shards[shardOf(roomId)];
+        synchronized (shard) {
+            if (shard.rooms++ == 0) {
+                // join 시각 직전까지를 이미 읽은 것으로 둔다. 이후 XADD된 레코드는 모두 읽는다
+                shard.lastId = RecordId.of(Math.max(0, System.currentTimeMillis() - 1), Long.MAX_VALUE);
+                shard.consumer = read(shard);
+            }
+        }
+    }
+
+    /**
+     * 방의 마지막 로컬 세션이 떠날 때 호출. 샤드에 남은 방이 없으면 읽기를 멈춘다.
+     */
+    public void leave(String roomId) {
+        Shard shard = shards[shardOf(roomId)];
+        synchronized (shard) {
+            if (shard.rooms > 0 && --shard.rooms == 0 && shard.consumer != null) {
+                shard.consumer.dispose();
+                shard.consumer = null;
+            }
+        }
+    }
+
+    private int activeShards() {
+        int active = 0;
+        for (Shard shard : shards) {
+            if (shard.rooms > 0) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    // join에서 정한 ID 다음부터 읽는다. 실패하면 마지막으로 처리한 ID 다음부터 다시 읽는다
+    private Disposable read(Shard shard) {
+        StreamReceiver<String, MapRecord<String, String, String>> receiver = StreamReceiver.create(
+                readerConnectionFactory(),
+                StreamReceiver.StreamReceiverOptions.builder()
+                        .pollTimeout(pollTimeout)
+                        .batchSize(batchSize)
+                        .build());
+
+        log.debug("Reading {} after {}", shard.key, shard.lastId);
+        return Flux.defer(() -> resume(shard, receiver))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(100))
+                        .maxBackoff(Duration.ofSeconds(2))
+                        .doBeforeRetry(signal -> {
+                            reconnectCounter.increment();
+                            log.warn("Reading {} failed, resuming after {}: {}",
+                                    shard.key, shard.lastId, signal.failure().getMessage());
+                        }))
+                .repeat()
+                .subscribe();
+    }
+
+    private Flux<MapRecord<String, String, String>> resume(
+            Shard shard, StreamReceiver<String, MapRecord<String, String, String>> receiver) {
+        RecordId resumeFrom = shard.lastId;
+        return checkGap(shard.key, resumeFrom)
+                .thenMany(receiver.receive(StreamOffset.create(shard.key, ReadOffset.from(resumeFrom))))
+                .doOnNext(record -> {
+                    shard.lastId = record.getId();
+                    receivedCounter.increment();
+                    Map<String, String> fields = record.getValue();
+                    String roomId = fields.get(ROOM_FIELD);
+                    String json = fields.get(MESSAGE_FIELD);
+                    MessageBroker.RoomMessageHandler target = handler;
+                    if (roomId == null || json == null || target == null) {
+                        return;
+                    }
+                    try {
+                        target.onMessage(roomId, json.getBytes(StandardCharsets.UTF_8), receivedAt(fields));
+                    } catch (Exception e) {
+                        log.error("Error handling stream record {}: {}", record.getId(), e.getMessage());
+                    }
+                });
+    }
+
+    private static long receivedAt(Map<String, String> fields) {
+        String value = fields.get(RECEIVED_AT_FIELD);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // 스트림의 첫 레코드가 이어 읽을 ID보다 뒤라면 그 사이 레코드는 MAXLEN으로 잘려 나갔을 수 있다
+    private Mono<Void> checkGap(String key, RecordId resumeFrom) {
+        if (BEGINNING.equals(resumeFrom)) {
+            return Mono.empty();
+        }
+        return redisTemplate.opsForStream()
+                .range(key, Range.unbounded(), Limit.limit().count(1))
+                .next()
+                .doOnNext(first -> {
+                    if (isAfter(first.getId(), resumeFrom)) {
+                        gapCounter.increment();
+                        log.warn("{} was trimmed past {} (oldest is now {}); messages may be missing",
+                                key, resumeFrom, first.getId());
+                    }
+                })
+                .then();
+    }
+
+    private static boolean isAfter(RecordId id, RecordId other) {
+        int byTime = Long.compare(id.getTimestamp(), other.getTimestamp());
+        return byTime != 0 ? byTime > 0 : id.getSequence() > other.getSequence();
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.consumer != null) {
+                    shard.consumer.dispose();
+                    shard.consumer = null;
+                }
+                shard.rooms = 0;
+            }
+        }
+        synchronized (this) {
+            if (readerConnectionFactory != null) {
+                readerConnectionFactory.destroy();
+                readerConnectionFactory = null;
+            }
+            readerFactory = null;
+        }
+    }
+
+    // 모든 샤드가 같은 읽기 전용 팩토리를 쓰고, 공유 연결을 끄므로 receive마다 연결을 따로 받는다
+    private synchronized ReactiveRedisConnectionFactory readerConnectionFactory() {
+        if (readerFactory != null) {
+            return readerFactory;
+        }
+        if (connectionFactory instanceof LettuceConnectionFactory lettuce && lettuce.getStandaloneConfiguration() != null) {
+            LettuceConnectionFactory dedicated = new LettuceConnectionFactory(
+                    lettuce.getStandaloneConfiguration(), lettuce.getClientConfiguration());
+            dedicated.setShareNativeConnection(false);
+            dedicated.afterPropertiesSet();
+            readerConnectionFactory = dedicated;
+            readerFactory = dedicated;
+        } else {
+            log.warn("Reading chat stream shards over the shared Redis connection");
+            readerFactory = connectionFactory;
+        }
+        return readerFactory;
+    }
+
+    private static final class Shard {
+        private final String key;
+        // 이 노드가 마지막으로 처리한 레코드 ID (샤드별 오프셋)
+        private volatile RecordId lastId = BEGINNING;
+        private int rooms; // synchronized(this) 안에서만 변경
+        private Disposable consumer;
+
+        private Shard(String key) {
+            this.key = key;
+        }
+    }
+}
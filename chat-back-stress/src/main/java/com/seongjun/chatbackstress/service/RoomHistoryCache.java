@@ -0,0 +1,261 @@
+package com.seongjun.chatbackstress.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 이 노드에서 활성화된 방의 최근 이력을 HISTORY 프레임으로 직렬화해 보관하는 L1 캐시.
+ *
+ * <p>방마다 최근 MESSAGE_RETENTION개를 담는 링 버퍼를 두고, 노드가 이미 구독 중인 방 채널에서
+ * 받은 메시지로 갱신한다. 링은 방 채널을 구독하기 직전에 {@link #open}으로 비어 있는 상태로 만들어
+ * 그때부터 받은 메시지를 모두 담고, Redis/PostgreSQL에서 읽은 이력은 나중에 {@link #prime}으로 순번 기준으로 합친다.
+ * 합치기 전까지는 이력이 비어 있으므로 조회에 쓰지 않는다.
+ * 방 채널 구독이 해제되면 더 이상 최신 상태를 보장할 수 없으므로 즉시 제거하고,
+ * 전체 크기가 max-bytes를 넘으면 가장 오래 사용되지 않은 방부터 제거한다. 메모리 때문에 제거된 방이 아직 구독 중이면
+ * 다음 이력 조회의 {@link #epoch}에서 링을 다시 열어, 그 조회가 읽은 이력으로 다시 채운다.
+ *
+ * <p>프레임마다 방별 순번을 함께 보관해서 재연결한 클라이언트에게 놓친 구간만 보낼 수 있다.
+ */
+@Slf4j
+@Component
+public class RoomHistoryCache {
+    private final ObjectMapper objectMapper;
+    private final long maxBytes;
+    private final int capacity = ChatService.MESSAGE_RETENTION;
+    private final Map<String, Ring> rooms = new ConcurrentHashMap<>();
+    // 방 채널을 구독 중인 방. 메모리 때문에 링이 제거돼도 남아 있어 다시 열 수 있다
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong epochs = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    /**
+     * 직렬화된 HISTORY 프레임과 그 메시지의 방별 순번 (순번이 없던 메시지는 0)
+     */
+    public record HistoryFrame(long seq, byte[] json) {
+    }
+
+    public RoomHistoryCache(ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.history.cache.max-bytes:64MB}") DataSize maxBytes) {
+        this.objectMapper = objectMapper;
+        this.maxBytes = maxBytes.toBytes();
+
+        this.hitCounter = Counter.builder("chat.history.cache.requests")
+                .tag("result", "hit")
+                .description("History replays served from the in-process room cache")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("chat.history.cache.requests")
+                .tag("result", "miss")
+                .description("History replays served from the in-process room cache")
+                .register(meterRegistry);
+        this.evictionCounter = Counter.builder("chat.history.cache.evictions")
+                .description("Rooms evicted from the in-process history cache because of the memory cap")
+                .register(meterRegistry);
+        meterRegistry.gauge("chat.history.cache.rooms", rooms, Map::size);
+        meterRegistry.gauge("chat.history.cache.bytes", totalBytes, AtomicLong::get);
+    }
+
+    /**
+     * 방 채널을 구독하기 직전에 호출한다. 이후 받은 메시지는 {@link #prime} 전이라도 링에 쌓인다.
+     */
+    public void open(String roomId) {
+        subscribed.add(roomId);
+        rooms.putIfAbsent(roomId, new Ring(capacity, epochs.incrementAndGet()));
+    }
+
+    /**
+     * 이력을 읽기 전에 호출해서 지금 열려 있는 링을 가리키는 값을 받는다. 구독 중인데 메모리 때문에 링이 제거됐으면
+     * 빈 링을 다시 열어서 이번에 읽은 이력으로 채울 수 있게 한다. 구독 중이 아니면 -1
+     */
+    public long epoch(String roomId) {
+        // 구독 해제(evict)는 subscribed에서 먼저 빼고 링을 지우므로, 해제 뒤에 다시 열린 링은 남지 않는다
+        Ring ring = rooms.computeIfAbsent(roomId,
+                id -> subscribed.contains(id) ? new Ring(capacity, epochs.incrementAndGet()) : null);
+        return ring != null ? ring.epoch : -1;
+    }
+
+    /**
+     * 최신순 HISTORY 프레임 목록. 캐시에 없거나 아직 이력을 합치지 않은 방이면 null
+     */
+    public List<HistoryFrame> get(String roomId) {
+        Ring ring = rooms.get(roomId);
+        if (ring == null || !ring.primed) {
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        return ring.snapshot();
+    }
+
+    /**
+     * Redis/PostgreSQL에서 읽은 이력(최신순)을 링에 이미 쌓인 메시지와 순번 기준으로 합친다.
+     * epoch는 이력을 읽기 전에 {@link #epoch}로 받은 값이다. 그 사이 구독이 해제됐다가 다시 열렸으면
+     * 읽은 이력과 새 링 사이에 빈 구간이 있을 수 있으므로 합치지 않는다.
+     */
+    public void prime(String roomId, long epoch, List<HistoryFrame> newestFirst) {
+        Ring ring = rooms.get(roomId);
+        if (ring == null || ring.epoch != epoch) {
+            return;
+        }
+        long delta = ring.merge(newestFirst);
+        if (rooms.get(roomId) == ring) {
+            totalBytes.addAndGet(delta);
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * 방 채널에서 받은 메시지를 HISTORY 프레임으로 바꿔 추가한다. 캐시에 없는 방은 무시한다.
+     */
+    public void append(String roomId, byte[] chatPayload) {
+        Ring ring = rooms.get(roomId);
+        if (ring == null) {
+            return;
+        }
+        try {
+            WebSocketMessageDto dto = objectMapper.readValue(chatPayload, WebSocketMessageDto.class);
+            dto.setType("HISTORY");
+            long seq = dto.getSeq() != null ? dto.getSeq() : 0;
+            long delta = ring.add(new HistoryFrame(seq, objectMapper.writeValueAsBytes(dto)));
+            // 추가하는 사이 방이 제거됐다면 이미 차감된 링이므로 합계에 반영하지 않음
+            if (rooms.get(roomId) == ring) {
+                totalBytes.addAndGet(delta);
+                evictIfNeeded();
+            }
+        } catch (Exception e) {
+            log.error("Error caching history message for room {}: {}", roomId, e.getMessage());
+        }
+    }
+
+    // 방 채널 구독이 해제될 때 호출
+    public void evict(String roomId) {
+        subscribed.remove(roomId);
+        drop(roomId);
+    }
+
+    private void drop(String roomId) {
+        Ring ring = rooms.remove(roomId);
+        if (ring != null) {
+            totalBytes.addAndGet(-ring.bytes());
+        }
+    }
+
+    // 메모리 상한을 넘으면 가장 오래 조회/갱신되지 않은 방부터 제거 (드물게 실행되므로 전체 순회)
+    private void evictIfNeeded() {
+        while (totalBytes.get() > maxBytes) {
+            String lru = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, Ring> entry : rooms.entrySet()) {
+                long lastAccess = entry.getValue().lastAccess;
+                if (lastAccess < oldest) {
+                    oldest = lastAccess;
+                    lru = entry.getKey();
+                }
+            }
+            if (lru == null) {
+                return;
+            }
+            // 구독은 유지한 채 링만 제거한다. 다음 이력 조회에서 다시 열린다
+            drop(lru);
+            evictionCounter.increment();
+        }
+    }
+
+    private static final class Ring {
+        // 순번이 같으면 같은 메시지. 순번이 없던 예전 메시지(0)는 들어온 순서를 유지한 채 앞쪽에 둔다
+        private static final Comparator<HistoryFrame> BY_SEQ = Comparator.comparingLong(HistoryFrame::seq);
+
+        private final HistoryFrame[] frames;
+        private final long epoch;
+        private int head; // 다음에 쓸 위치
+        private int size;
+        private long bytes;
+        private volatile boolean primed;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Ring(int capacity, long epoch) {
+            this.frames = new HistoryFrame[capacity];
+            this.epoch = epoch;
+        }
+
+        // 읽은 이력(최신순)과 이미 받은 메시지를 합쳐 순번 순서로 다시 채운다. 증가한 바이트 수를 반환
+        private synchronized long merge(List<HistoryFrame> loadedNewestFirst) {
+            List<HistoryFrame> received = snapshot();
+            Set<Long> receivedSeqs = new HashSet<>();
+            for (HistoryFrame frame : received) {
+                receivedSeqs.add(frame.seq());
+            }
+            List<HistoryFrame> merged = new ArrayList<>(loadedNewestFirst.size() + received.size());
+            for (int i = loadedNewestFirst.size() - 1; i >= 0; i--) {
+                HistoryFrame frame = loadedNewestFirst.get(i);
+                if (frame.seq() == 0 || !receivedSeqs.contains(frame.seq())) {
+                    merged.add(frame);
+                }
+            }
+            for (int i = received.size() - 1; i >= 0; i--) {
+                merged.add(received.get(i));
+            }
+            merged.sort(BY_SEQ);
+
+            long before = bytes;
+            Arrays.fill(frames, null);
+            head = 0;
+            size = 0;
+            bytes = 0;
+            for (HistoryFrame frame : merged.subList(Math.max(0, merged.size() - frames.length), merged.size())) {
+                add(frame);
+            }
+            primed = true;
+            return bytes - before;
+        }
+
+        // 증가한 바이트 수를 반환 (덮어쓴 프레임만큼 차감)
+        private synchronized long add(HistoryFrame frame) {
+            long delta = frame.json().length;
+            HistoryFrame overwritten = frames[head];
+            if (overwritten != null) {
+                delta -= overwritten.json().length;
+            } else {
+                size++;
+            }
+            frames[head] = frame;
+            head = (head + 1) % frames.length;
+            bytes += delta;
+            lastAccess = System.nanoTime();
+            return delta;
+        }
+
+        private synchronized List<HistoryFrame> snapshot() {
+            List<HistoryFrame> newestFirst = new ArrayList<>(size);
+            for (int i = 1; i <= size; i++) {
+                newestFirst.add(frames[(head - i + frames.length) % frames.length]);
+            }
+            lastAccess = System.nanoTime();
+            return newestFirst;
+        }
+
+        private synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.seongjun.chatbackstress.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 채팅 메시지의 저장과 발행을 방별 순서대로 처리하는 lane.
+ *
+ * <p>방 ID의 해시로 lane을 고르므로 한 방의 메시지는 항상 같은 lane을 지나고, lane은 코어 수만큼 만들어
+ * 전용 스레드에 나눠 둔다. 메시지는 받아들일지 검사(admit, 중복 검사) → 저장(persist) → 발행 순으로 지나간다.
+ * 검사와 저장은 각각 최대 concurrency개까지 겹쳐서 진행하지만, 검사 결과는 들어온 순서대로 내보내고 저장은 그 순서대로
+ * 시작하므로 순번(INCR)도 들어온 순서대로 요청된다. 발행도 들어온 순서대로만 하므로 같은 방에서는 순번, 이력, 발행 순서가 모두 같다.
+ *
+ * <p>lane마다 처리 중인 메시지 수가 max-in-flight에 닿으면 새 메시지를 거절해 순간적인 폭주가 Redis와
+ * PostgreSQL까지 그대로 전달되지 않게 한다.
+ */
+@Slf4j
+@Component
+public class RoomLanes {
+    private final Lane[] lanes;
+    private final int maxInFlight;
+    private final Duration shutdownTimeout;
+    private final Scheduler scheduler;
+    private final Counter rejectedCounter;
+
+    public RoomLanes(MeterRegistry meterRegistry,
+                     @Value("${chat.lanes.count:0}") int count,
+                     @Value("${chat.lanes.concurrency:32}") int concurrency,
+                     @Value("${chat.lanes.max-in-flight:1024}") int maxInFlight,
+                     @Value("${chat.lanes.shutdown-timeout:5s}") Duration shutdownTimeout) {
+        int laneCount = count > 0 ? count : Runtime.getRuntime().availableProcessors();
+        this.maxInFlight = maxInFlight;
+        this.shutdownTimeout = shutdownTimeout;
+        // parallel 스케줄러는 구독마다 워커를 돌아가며 배정하므로 lane i는 워커 i에 고정된다
+        this.scheduler = Schedulers.newParallel("chat-lane", laneCount);
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(scheduler, concurrency);
+        }
+
+        this.rejectedCounter = Counter.builder("chat.lanes.rejected")
+                .description("Chat messages rejected because their room's lane had too many in flight")
+                .register(meterRegistry);
+        Gauge.builder("chat.lanes.in.flight", this, RoomLanes::inFlight)
+                .description("Chat messages waiting in or being processed by room lanes")
+                .register(meterRegistry);
+        log.info("Room lanes: count={}, concurrency={}, maxInFlight={}", laneCount, concurrency, maxInFlight);
+    }
+
+    /**
+     * 방의 lane에 메시지를 넣는다. admit이 true면 같은 lane의 앞선 메시지보다 먼저 시작하지 않도록 persist를 구독하고,
+     * persist가 true로 끝나면(false, 빈 값, 실패면 건너뜀) 앞선 메시지의 발행을 시작한 뒤 publish를 구독한다.
+     * 메시지는 publish가 끝나야 처리 중에서 빠진다. lane이 가득 차 있으면 false를 반환한다.
+     *
+     * @param admit   구독할 때 실행되는 검사. 저장해야 하면 true
+     * @param persist 구독할 때 실행되는 저장 작업. 발행해야 하면 true
+     * @param publish 구독할 때 실행되는 발행. 브로커가 받으면 완료
+     */
+    public boolean submit(String roomId, Mono<Boolean> admit, Mono<Boolean> persist, Mono<Void> publish) {
+        Lane lane = lanes[(roomId.hashCode() & Integer.MAX_VALUE) % lanes.length];
+        if (lane.inFlight.incrementAndGet() > maxInFlight) {
+            lane.inFlight.decrementAndGet();
+            rejectedCounter.increment();
+            return false;
+        }
+        Task task = new Task(admit, persist, publish);
+        // 여러 세션 스레드에서 동시에 넣으므로 sink 입력은 lane 단위로 직렬화
+        Sinks.EmitResult result;
+        synchronized (lane) {
+            result = lane.sink.tryEmitNext(task);
+        }
+        if (result.isFailure()) {
+            lane.inFlight.decrementAndGet();
+            rejectedCounter.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // 모든 lane에서 저장 또는 발행을 기다리는 메시지 수
+    public int inFlight() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.inFlight.get();
+        }
+        return total;
+    }
+
+    /**
+     * 모든 lane이 비거나 timeout이 지날 때까지 블로킹한다. 비었으면 true
+     */
+    public boolean awaitIdle(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (inFlight() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return inFlight() == 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                lane.sink.tryEmitComplete();
+            }
+        }
+        // 이미 받은 메시지는 저장과 발행을 마칠 때까지 잠깐 기다린다
+        if (!awaitIdle(shutdownTimeout)) {
+            log.warn("{} chat messages were still in room lanes at shutdown", inFlight());
+        }
+        for (Lane lane : lanes) {
+            lane.consumer.dispose();
+        }
+        scheduler.dispose();
+    }
+
+    private record Task(Mono<Boolean> admit, Mono<Boolean> persist, Mono<Void> publish) {
+    }
+
+    private record Admitted(Task task, boolean admitted) {
+    }
+
+    private record Done(Task task, boolean saved) {
+    }
+
+    private static final class Lane {
+        private final Sinks.Many<Task> sink = Sinks.many().unicast().onBackpressureBuffer();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Disposable consumer;
+
+        private Lane(Scheduler scheduler, int concurrency) {
+            this.consumer = sink.asFlux()
+                    .publishOn(scheduler)
+                    // 검사는 겹쳐서 진행하되 결과는 들어온 순서대로 내보낸다
+                    .flatMapSequential(task -> task.admit()
+                            .defaultIfEmpty(Boolean.FALSE)
+                            .onErrorResume(e -> {
+                                log.error("Error checking chat message: {}", e.getMessage());
+                                return Mono.just(Boolean.FALSE);
+                            })
+                            .map(admitted -> new Admitted(task, admitted)), concurrency)
+                    // 저장은 검사 순서대로 시작(순번 요청)하고 겹쳐서 진행하되 결과는 들어온 순서대로 내보낸다
+                    .flatMapSequential(admitted -> (admitted.admitted() ? admitted.task().persist() : Mono.just(Boolean.FALSE))
+                            .defaultIfEmpty(Boolean.FALSE)
+                            .onErrorResume(e -> {
+                                log.error("Error saving chat message: {}", e.getMessage());
+                                return Mono.just(Boolean.FALSE);
+                            })
+                            .map(saved -> new Done(admitted.task(), saved)), concurrency)
+                    // 발행도 저장 순서대로 시작하고, 브로커가 받은 뒤에야 처리 중에서 뺀다
+                    .flatMapSequential(done -> (done.saved() ? done.task().publish() : Mono.<Void>empty())
+                            .onErrorResume(e -> {
+                                log.error("Error publishing chat message: {}", e.getMessage());
+                                return Mono.empty();
+                            })
+                            .doFinally(signal -> inFlight.decrementAndGet()), concurrency)
+                    .subscribe();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.seongjun.chatbackstress.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 입력 중 표시(TYPING). 저장하지 않고 이력에도 남기지 않는다.
+ *
+ * <p>클라이언트는 입력하는 동안 TYPING을 보내고, 서버는 방/사용자별 마지막 수신 시각만 갱신한다.
+ * interval마다 방별로 바뀐 사용자만 모아 프레임 하나로 발행하므로 키 입력마다 방 전체에 전달되지 않고,
+ * 한 사용자의 상태는 interval당 최대 한 번 바뀐다. ttl 동안 TYPING이 없거나 CHAT을 보내면 입력 종료로 알린다.
+ *
+ * <pre>{"type":"TYPING","roomId":"room-1","started":["user-1"],"stopped":["user-2"]}</pre>
+ *
+ * 각 노드는 자기 세션의 사용자 변화만 보내므로 클라이언트는 started/stopped로 입력 중인 사용자 집합을 갱신한다.
+ */
+@Slf4j
+@Component
+public class TypingIndicators {
+    public static final String TYPE = "TYPING";
+    private static final byte[] FRAME_PREFIX = EphemeralFrames.prefix(TYPE);
+
+    private final MessageBroker broker;
+    private final ObjectMapper objectMapper;
+    private final Duration interval;
+    private final long ttlNanos;
+    private final Map<String, RoomTyping> rooms = new ConcurrentHashMap<>();
+
+    private final Counter eventCounter;
+    private final Counter frameCounter;
+
+    private Disposable ticker;
+
+    public TypingIndicators(MessageBroker broker,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.typing.interval:1s}") Duration interval,
+                            @Value("${chat.typing.ttl:5s}") Duration ttl) {
+        this.broker = broker;
+        this.objectMapper = objectMapper;
+        this.interval = interval;
+        this.ttlNanos = ttl.toNanos();
+
+        this.eventCounter = Counter.builder("chat.typing.events")
+                .description("TYPING events received from clients")
+                .register(meterRegistry);
+        this.frameCounter = Counter.builder("chat.typing.frames")
+                .description("Coalesced TYPING state changes published to rooms")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker = Flux.interval(interval)
+                .subscribe(tick -> flush(System.nanoTime()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.dispose();
+        }
+    }
+
+    public void onTyping(String roomId, String sender) {
+        if (roomId == null || sender == null) {
+            return;
+        }
+        eventCounter.increment();
+        long now = System.nanoTime();
+        rooms.compute(roomId, (id, room) -> {
+            RoomTyping target = room != null ? room : new RoomTyping();
+            target.lastTyping.put(sender, now);
+            return target;
+        });
+    }
+
+    // 메시지를 보냈으면 입력이 끝난 것. 다음 flush에서 stopped로 알린다
+    public void onMessageSent(String roomId, String sender) {
+        RoomTyping room = rooms.get(roomId);
+        if (room != null && sender != null) {
+            room.lastTyping.remove(sender);
+        }
+    }
+
+    /**
+     * 방 채널에서 받은 메시지가 TYPING 프레임인지 본문을 파싱하지 않고 확인한다.
+     */
+    public static boolean isTypingFrame(byte[] json) {
+        return EphemeralFrames.startsWith(json, FRAME_PREFIX);
+    }
+
+    // interval마다 한 스레드에서만 호출되므로 announced는 여기서만 변경
+    private void flush(long now) {
+        for (Map.Entry<String, RoomTyping> entry : rooms.entrySet()) {
+            String roomId = entry.getKey();
+            RoomTyping room = entry.getValue();
+            List<String> started = new ArrayList<>();
+            List<String> stopped = new ArrayList<>();
+
+            Iterator<Map.Entry<String, Long>> typing = room.lastTyping.entrySet().iterator();
+            while (typing.hasNext()) {
+                Map.Entry<String, Long> user = typing.next();
+                if (now - user.getValue() >= ttlNanos) {
+                    typing.remove();
+                } else if (room.announced.add(user.getKey())) {
+                    started.add(user.getKey());
+                }
+            }
+            Iterator<String> announced = room.announced.iterator();
+            while (announced.hasNext()) {
+                String user = announced.next();
+                if (!room.lastTyping.containsKey(user)) {
+                    announced.remove();
+                    stopped.add(user);
+                }
+            }
+
+            if (!started.isEmpty() || !stopped.isEmpty()) {
+                publish(roomId, started, stopped);
+            }
+            // 입력 중인 사용자가 없으면 방 상태 제거 (그 사이 onTyping이 넣었으면 유지)
+            rooms.computeIfPresent(roomId, (id, current) ->
+                    current.lastTyping.isEmpty() && current.announced.isEmpty() ? null : current);
+        }
+    }
+
+    private void publish(String roomId, List<String> started, List<String> stopped) {
+        try {
+            Map<String, Object> frame = EphemeralFrames.frame(TYPE, roomId);
+            frame.put("started", started);
+            frame.put("stopped", stopped);
+            broker.publishEphemeral(roomId, objectMapper.writeValueAsString(frame))
+                    .subscribe(null, e -> log.error("Error publishing typing state for room {}: {}", roomId, e.getMessage()));
+            frameCounter.increment();
+        } catch (Exception e) {
+            log.error("Error serializing typing state for room {}: {}", roomId, e.getMessage());
+        }
+    }
+
+    private static final class RoomTyping {
+        private final Map<String, Long> lastTyping = new ConcurrentHashMap<>();
+        // 방에 입력 중이라고 알린 사용자 (flush에서만 접근)
+        private final Set<String> announced = new HashSet<>();
+    }
+}
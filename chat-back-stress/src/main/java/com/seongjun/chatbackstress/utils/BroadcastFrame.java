@@ -0,0 +1,99 @@
+package com.seongjun.chatbackstress.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DuplicatedByteBuf;
+import io.netty.buffer.Unpooled;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 한 번만 인코딩해서 여러 세션이 공유하는 참조 카운트 기반 프레임.
+ *
+ * <p>세션 큐에 넣기 전에 {@link #retain()}으로 참조를 하나 확보하고,
+ * 큐에서 꺼낼 때 {@link #toMessage(WebSocketSession)}가 그 참조를 WebSocketMessage로 넘긴다.
+ * 전송이 끝나면 Netty가 해제하므로 수신자마다 새로 할당되는 것은 duplicate 뷰와 프레임 헤더뿐이다.
+ * 큐에서 버려지는 프레임은 {@link #release()}로 직접 해제해야 한다.
+ *
+ * <p>duplicate 뷰는 {@link Timed}로 만들어 생성 시각과 receivedAt을 함께 넘기므로, 채널 파이프라인에서 쓰기가 끝났을 때
+ * 지연을 기록할 수 있다 (SessionWriteMetricsConfig).
+ */
+public final class BroadcastFrame {
+    private final ByteBuf content;
+    private final WebSocketMessage.Type type;
+    private final long createdNanos = System.nanoTime();
+    private long receivedAt; // 원본 메시지의 receivedAt (epoch ms). 이력/RESYNC 프레임은 0
+
+    private BroadcastFrame(ByteBuf content, WebSocketMessage.Type type) {
+        this.content = content;
+        this.type = type;
+    }
+
+    public static BroadcastFrame wrap(byte[] utf8) {
+        return wrap(utf8, WebSocketMessage.Type.TEXT);
+    }
+
+    public static BroadcastFrame wrap(byte[] payload, WebSocketMessage.Type type) {
+        return new BroadcastFrame(Unpooled.wrappedBuffer(payload), type);
+    }
+
+    public static BroadcastFrame of(String text) {
+        return wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 세션 큐에 넣기 전에만 설정 (큐를 통해 송신 스레드에 전달됨)
+    public BroadcastFrame withReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+        return this;
+    }
+
+    public BroadcastFrame retain() {
+        content.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return content.release();
+    }
+
+    // retain()으로 확보한 참조 하나를 소비한다
+    public WebSocketMessage toMessage(WebSocketSession session) {
+        DataBufferFactory bufferFactory = session.bufferFactory();
+        DataBuffer payload;
+        if (bufferFactory instanceof NettyDataBufferFactory nettyBufferFactory) {
+            payload = nettyBufferFactory.wrap(new Timed(content, createdNanos, receivedAt));
+        } else {
+            payload = bufferFactory.wrap(ByteBufUtil.getBytes(content));
+            content.release();
+        }
+        return new WebSocketMessage(type, payload);
+    }
+
+    /**
+     * 공유 버퍼의 duplicate 뷰. 참조 카운트는 원본과 같고, 프레임을 만든 시각과 원본 메시지의 receivedAt을 담는다.
+     */
+    @SuppressWarnings("deprecation")
+    public static final class Timed extends DuplicatedByteBuf {
+        private final long createdNanos;
+        private final long receivedAt;
+
+        private Timed(ByteBuf content, long createdNanos, long receivedAt) {
+            super(content);
+            this.createdNanos = createdNanos;
+            this.receivedAt = receivedAt;
+        }
+
+        public long getCreatedNanos() {
+            return createdNanos;
+        }
+
+        public long getReceivedAt() {
+            return receivedAt;
+        }
+    }
+}
@@ -3,40 +3,82 @@ package com.seongjun.chatbackstress.utils;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.socket.WebSocketSession;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
 
+/**
+ * 방별 세션 레지스트리.
+ * 방 → (세션 ID → 세션) 인덱스와 세션 ID → 방 역인덱스를 함께 유지해서
+ * 입장/퇴장/연결 종료가 방 인원이나 전체 세션 수와 무관하게 상수 시간에 처리된다.
+ */
 @Component
 public class ChatSessionManager {
-    private final Map<String, List<WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> sessionRooms = new ConcurrentHashMap<>();
 
-    public void addSession(String roomId, WebSocketSession session) {
-        roomSessions.computeIfAbsent(roomId, k -> new CopyOnWriteArrayList<>()).add(session);
+    // 새로 입장한 경우에만 true
+    public boolean addSession(String roomId, WebSocketSession session) {
+        String sessionId = session.getId();
+        if (!sessionRooms.computeIfAbsent(sessionId, k -> ConcurrentHashMap.newKeySet()).add(roomId)) {
+            return false;
+        }
+        roomSessions.compute(roomId, (k, sessions) -> {
+            Map<String, WebSocketSession> target = sessions != null ? sessions : new ConcurrentHashMap<>();
+            target.put(sessionId, session);
+            return target;
+        });
+        return true;
     }
 
-    public List<WebSocketSession> getSessions(String roomId) {
-        return roomSessions.getOrDefault(roomId, Collections.emptyList());
+    public Collection<WebSocketSession> getSessions(String roomId) {
+        Map<String, WebSocketSession> sessions = roomSessions.get(roomId);
+        return sessions != null ? sessions.values() : Collections.emptyList();
     }
 
     public List<String> getSessionIds(String roomId) {
-        return getSessions(roomId).stream()
-                .map(WebSocketSession::getId)
-                .collect(Collectors.toList());
+        Map<String, WebSocketSession> sessions = roomSessions.get(roomId);
+        return sessions != null ? List.copyOf(sessions.keySet()) : Collections.emptyList();
     }
 
-    public void removeSession(String sessionId) {
-        roomSessions.values().forEach(sessions -> 
-            sessions.removeIf(session -> session.getId().equals(sessionId))
-        );
+    public Set<String> getRooms(String sessionId) {
+        Set<String> rooms = sessionRooms.get(sessionId);
+        return rooms != null ? Collections.unmodifiableSet(rooms) : Collections.emptySet();
+    }
+
+    // 방 하나에서만 퇴장. 실제로 퇴장 처리된 경우에만 true
+    public boolean leaveRoom(String roomId, String sessionId) {
+        Set<String> rooms = sessionRooms.get(sessionId);
+        if (rooms == null || !rooms.remove(roomId)) {
+            return false;
+        }
+        detach(roomId, sessionId);
+        return true;
+    }
+
+    // 세션이 빠져나간 방 목록을 반환
+    public List<String> removeSession(String sessionId) {
+        Set<String> rooms = sessionRooms.remove(sessionId);
+        if (rooms == null) {
+            return Collections.emptyList();
+        }
+        rooms.forEach(roomId -> detach(roomId, sessionId));
+        return List.copyOf(rooms);
     }
 
     public boolean isSessionInRoom(String roomId, WebSocketSession session) {
-        List<WebSocketSession> sessions = roomSessions.get(roomId);
-        return sessions != null && sessions.stream()
-                .anyMatch(s -> s.getId().equals(session.getId()));
+        Set<String> rooms = sessionRooms.get(session.getId());
+        return rooms != null && rooms.contains(roomId);
+    }
+
+    // 비어버린 방은 맵에서 제거해서 방 수가 누적되지 않도록 함
+    private void detach(String roomId, String sessionId) {
+        roomSessions.computeIfPresent(roomId, (k, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
     }
 }
@@ -0,0 +1,90 @@
+package com.seongjun.chatbackstress.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 시간순으로 정렬되는 64비트 메시지 ID.
+ *
+ * <p>{@code [부호 1][EPOCH 이후 ms 41][노드 10][ms 안의 순번 12]}. 노드당 ms마다 4096개까지 만들 수 있고,
+ * 다 쓰면 다음 ms 값을 미리 빌려 쓴다. 시계가 뒤로 가도 마지막 시각에서 이어가므로 ID는 노드 안에서 항상 증가한다.
+ * 상태(시각 + 순번)를 하나의 long에 담아 CAS로 갱신하므로 잠금이 없다.
+ *
+ * <p>node-id를 지정하지 않으면 호스트 이름(쿠버네티스에서는 파드 이름)의 해시로 정한다.
+ * 노드가 1024개보다 적어도 해시가 겹칠 수 있으므로 여러 노드로 띄울 때는 node-id를 지정하는 것이 안전하다.
+ */
+@Slf4j
+@Component
+public class MessageIdGenerator {
+    // 2025-01-01T00:00:00Z. 41비트로 약 69년
+    static final long EPOCH = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // 이보다 작은 ID는 예전 BIGSERIAL 값. 생성기 ID로는 EPOCH 후 약 4분(2^18 ms) 안에 만든 것뿐이라 겹치지 않는다
+    private static final long MIN_GENERATED_ID = 1L << 40;
+
+    private final long nodeBits;
+    // (EPOCH 이후 ms << SEQUENCE_BITS) | 순번
+    private final AtomicLong state = new AtomicLong();
+
+    public MessageIdGenerator(@Value("${chat.node-id:-1}") long nodeId) {
+        long node = nodeId >= 0 ? nodeId : hostNode();
+        if (node > MAX_NODE) {
+            throw new IllegalArgumentException("chat.node-id must be between 0 and " + MAX_NODE + ": " + node);
+        }
+        this.nodeBits = node << SEQUENCE_BITS;
+        log.info("Message ID node: {}", node);
+    }
+
+    public long nextId() {
+        long now = System.currentTimeMillis() - EPOCH;
+        while (true) {
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long next = now > last
+                    ? now << SEQUENCE_BITS
+                    : current + 1; // 같은 ms이거나 시계가 뒤로 갔으면 순번 증가 (넘치면 다음 ms로 넘어감)
+            if (state.compareAndSet(current, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // ID를 만든 시각 (epoch ms)
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    // ID에서 시각을 꺼낼 수 있는지. 파티션 이전 테이블에서 옮겨 온 BIGSERIAL ID는 시각을 담고 있지 않다
+    public static boolean isGenerated(long id) {
+        return id >= MIN_GENERATED_ID;
+    }
+
+    // created_at 컬럼 값 (UTC). 파티션 키와 ID 순서가 같아지도록 ID의 시각을 그대로 쓰고,
+    // 노드마다 시간대가 달라도 같은 ID가 같은 파티션/커서가 되도록 시스템 시간대를 쓰지 않는다
+    public static LocalDateTime createdAtOf(long id) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampOf(id)), ZoneOffset.UTC);
+    }
+
+    private static long hostNode() {
+        String host = System.getenv("HOSTNAME");
+        if (host == null || host.isEmpty()) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                log.warn("Could not resolve host name for message ID node, using 0: {}", e.getMessage());
+                return 0;
+            }
+        }
+        return (host.hashCode() & Integer.MAX_VALUE) % (MAX_NODE + 1);
+    }
+}
@@ -0,0 +1,94 @@
+package com.seongjun.chatbackstress.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 채팅 메시지가 단계별로 쓰는 시간과 수신부터 세션 전송까지의 종단 간 지연.
+ *
+ * <p>수신 노드가 디코딩 직후 receivedAt(epoch ms)을 기록하고, 브로커가 이 값을 본문과 따로(pubsub 본문 앞 머리,
+ * 스트림 필드) 다른 노드까지 전달한다. 세션 쓰기와 종단 간 지연은 소켓 쓰기가 끝났을 때 기록한다.
+ * 노드 간 단계(pubsub.receive, e2e)는 노드 시계가 NTP로 맞춰져 있다고 가정한다.
+ */
+@Component
+public class MessageLatencyMetrics {
+    public enum Stage {
+        // 수신 프레임 디코딩
+        DECODE("decode"),
+        // 수신(ID 부여)부터 write-behind를 거쳐 PostgreSQL 커밋까지
+        PERSIST("persist"),
+        // Redis 이력 리스트 추가
+        HISTORY_APPEND("history.append"),
+        // Redis 채널 발행
+        PUBLISH("publish"),
+        // 수신 노드의 receivedAt부터 이 노드가 방 채널에서 받기까지
+        PUBSUB_RECEIVE("pubsub.receive"),
+        // 방의 모든 세션 송신 큐에 넣기까지
+        FANOUT("fanout"),
+        // 세션 송신 큐에 넣은 뒤 소켓 쓰기가 끝나기까지
+        SESSION_WRITE("session.write");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Timer endToEndTimer;
+
+    public MessageLatencyMetrics(MeterRegistry meterRegistry) {
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("chat.message.stage")
+                    .tag("stage", stage.tag)
+                    .description("Time a chat message spends in one stage of the delivery pipeline")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry));
+        }
+        this.endToEndTimer = Timer.builder("chat.message.e2e")
+                .description("Time from receiving a chat message on any node to handing it to a recipient's socket")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    // System.nanoTime()으로 잰 시작 시각부터 지금까지
+    public void recordSince(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // start는 UTC 기준 (created_at과 같은 기준). 시계 차이로 음수가 되면 0
+    public void recordSince(Stage stage, LocalDateTime start) {
+        Duration elapsed = Duration.between(start, LocalDateTime.now(ZoneOffset.UTC));
+        stageTimers.get(stage).record(elapsed.isNegative() ? Duration.ZERO : elapsed);
+    }
+
+    // 다른 노드에서 기록한 receivedAt 기준 (시계 차이로 음수가 되면 0)
+    public void recordSinceReceived(Stage stage, long receivedAtMillis) {
+        if (receivedAtMillis > 0) {
+            stageTimers.get(stage).record(elapsedMillis(receivedAtMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void recordEndToEnd(long receivedAtMillis) {
+        if (receivedAtMillis > 0) {
+            endToEndTimer.record(elapsedMillis(receivedAtMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long elapsedMillis(long receivedAtMillis) {
+        return Math.max(0, System.currentTimeMillis() - receivedAtMillis);
+    }
+}
@@ -0,0 +1,154 @@
+package com.seongjun.chatbackstress.utils;
+
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 세션 하나의 송신 큐. 크기가 capacity로 제한되며, 넘치면 {@link OverflowPolicy}에 따라 처리한다.
+ *
+ * <p>{@link #offer(BroadcastFrame)}는 호출자가 확보한 프레임 참조 하나를 넘겨받는다.
+ * 큐에 들어가지 못하거나 버려진 프레임은 여기서 해제한다.
+ */
+public final class SessionOutbound {
+
+    public enum OverflowPolicy {
+        // 가장 오래된 프레임을 버리고 새 프레임을 넣는다
+        DROP_OLDEST,
+        // 밀린 프레임을 모두 버리고 RESYNC 프레임 하나로 대체한다 (클라이언트는 이력을 다시 받는다)
+        COALESCE,
+        // 지정한 close code로 연결을 끊는다
+        DISCONNECT
+    }
+
+    public interface Listener {
+        void onDropped(int frames);
+
+        void onDisconnected();
+    }
+
+    private final WebSocketSession session;
+    private final WireFormat format;
+    private final byte[] resyncFrame;
+    private final OverflowPolicy policy;
+    private final CloseStatus overflowCloseStatus;
+    private final Listener listener;
+    private final Queue<BroadcastFrame> queue;
+    private final Sinks.Many<BroadcastFrame> sink;
+    private boolean closed; // synchronized 안에서만 변경
+    private volatile CloseStatus closeAfterFlush;
+
+    public SessionOutbound(WebSocketSession session, WireFormat format, byte[] resyncFrame, int capacity,
+                           OverflowPolicy policy, CloseStatus overflowCloseStatus, Listener listener) {
+        this.session = session;
+        this.format = format;
+        this.resyncFrame = resyncFrame;
+        this.policy = policy;
+        this.overflowCloseStatus = overflowCloseStatus;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sink = Sinks.many().unicast().onBackpressureBuffer(queue);
+    }
+
+    public String getSessionId() {
+        return session.getId();
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    /**
+     * 여러 스레드(Redis 구독, 이력 조회)에서 호출되므로 직렬화한다.
+     * 큐에 들어갔으면 true
+     */
+    public synchronized boolean offer(BroadcastFrame frame) {
+        if (closed) {
+            frame.release();
+            return false;
+        }
+        Sinks.EmitResult result = sink.tryEmitNext(frame);
+        if (result.isSuccess()) {
+            return true;
+        }
+        if (result != Sinks.EmitResult.FAIL_OVERFLOW) {
+            frame.release();
+            return false;
+        }
+
+        switch (policy) {
+            case DROP_OLDEST -> {
+                BroadcastFrame oldest = queue.poll();
+                if (oldest != null) {
+                    oldest.release();
+                }
+                listener.onDropped(1);
+                if (sink.tryEmitNext(frame).isSuccess()) {
+                    return true;
+                }
+                frame.release();
+                return false;
+            }
+            case COALESCE -> {
+                int dropped = 1;
+                BroadcastFrame pending;
+                while ((pending = queue.poll()) != null) {
+                    pending.release();
+                    dropped++;
+                }
+                frame.release();
+                listener.onDropped(dropped);
+                BroadcastFrame resync = BroadcastFrame.wrap(resyncFrame, format.getFrameType());
+                if (sink.tryEmitNext(resync).isFailure()) {
+                    resync.release();
+                }
+                return false;
+            }
+            default -> { // DISCONNECT
+                frame.release();
+                closed = true;
+                listener.onDisconnected();
+                session.close(overflowCloseStatus).subscribe();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 이미 큐에 들어간 프레임을 모두 보낸 뒤 status로 연결을 닫는다. 이후 offer는 거절된다.
+     */
+    public synchronized void closeAfterFlush(CloseStatus status) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeAfterFlush = status;
+        sink.tryEmitComplete();
+    }
+
+    public synchronized void fail(Throwable error) {
+        closed = true;
+        sink.tryEmitError(error);
+    }
+
+    public Flux<WebSocketMessage> messages() {
+        return sink.asFlux()
+                .map(frame -> frame.toMessage(session))
+                // 전송되지 못하고 버려진 공유 프레임의 참조 해제
+                .doOnDiscard(BroadcastFrame.class, BroadcastFrame::release)
+                // closeAfterFlush로 끝났으면 남은 프레임 뒤에 close 프레임을 보낸다
+                .concatWith(Mono.defer(() -> closeAfterFlush != null
+                        ? session.close(closeAfterFlush).then(Mono.<WebSocketMessage>empty())
+                        : Mono.<WebSocketMessage>empty()));
+    }
+}
@@ -0,0 +1,100 @@
+package com.seongjun.chatbackstress.utils;
+
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 세션별 송신 큐를 만들고 보관한다. 큐 크기와 넘칠 때의 정책은 chat.outbound.* 로 설정한다.
+ */
+@Component
+public class SessionOutboundRegistry implements SessionOutbound.Listener {
+    private final Map<String, SessionOutbound> outbounds = new ConcurrentHashMap<>();
+    private final Map<WireFormat, byte[]> resyncFrames = new EnumMap<>(WireFormat.class);
+    private final int capacity;
+    private final SessionOutbound.OverflowPolicy overflowPolicy;
+    private final CloseStatus overflowCloseStatus;
+
+    private final Counter droppedCounter;
+    private final Counter disconnectedCounter;
+
+    public SessionOutboundRegistry(MeterRegistry meterRegistry,
+                                   WireCodecs wireCodecs,
+                                   @Value("${chat.outbound.capacity:1024}") int capacity,
+                                   @Value("${chat.outbound.overflow-policy:DROP_OLDEST}") SessionOutbound.OverflowPolicy overflowPolicy,
+                                   @Value("${chat.outbound.close-code:4008}") int closeCode) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowCloseStatus = new CloseStatus(closeCode, "Slow consumer");
+        WebSocketMessageDto resync = WebSocketMessageDto.builder().type("RESYNC").build();
+        for (WireFormat format : WireFormat.values()) {
+            try {
+                resyncFrames.put(format, wireCodecs.encode(format, resync));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        this.droppedCounter = Counter.builder("chat.outbound.dropped")
+                .description("Frames dropped because a session's outbound queue was full")
+                .tag("policy", overflowPolicy.name())
+                .register(meterRegistry);
+        this.disconnectedCounter = Counter.builder("chat.outbound.disconnected")
+                .description("Sessions closed because their outbound queue was full")
+                .register(meterRegistry);
+        // 스크레이프 시점에 전체 세션을 순회해서 계산
+        Gauge.builder("chat.outbound.queued", outbounds, map -> map.values().stream()
+                        .mapToInt(SessionOutbound::depth).sum())
+                .description("Frames waiting in all session outbound queues")
+                .register(meterRegistry);
+        Gauge.builder("chat.outbound.depth.max", outbounds, map -> map.values().stream()
+                        .mapToInt(SessionOutbound::depth).max().orElse(0))
+                .description("Deepest session outbound queue")
+                .register(meterRegistry);
+    }
+
+    public SessionOutbound register(WebSocketSession session, WireFormat format) {
+        SessionOutbound outbound = new SessionOutbound(session, format, resyncFrames.get(format), capacity,
+                overflowPolicy, overflowCloseStatus, this);
+        outbounds.put(session.getId(), outbound);
+        return outbound;
+    }
+
+    public SessionOutbound get(String sessionId) {
+        return outbounds.get(sessionId);
+    }
+
+    public Collection<SessionOutbound> all() {
+        return outbounds.values();
+    }
+
+    public int size() {
+        return outbounds.size();
+    }
+
+    public void unregister(String sessionId) {
+        outbounds.remove(sessionId);
+    }
+
+    @Override
+    public void onDropped(int frames) {
+        droppedCounter.increment(frames);
+    }
+
+    @Override
+    public void onDisconnected() {
+        disconnectedCounter.increment();
+    }
+}
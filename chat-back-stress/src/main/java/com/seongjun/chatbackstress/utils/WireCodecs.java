@@ -0,0 +1,150 @@
+package com.seongjun.chatbackstress.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link WireFormat}별 ObjectMapper를 보관하고 WebSocket 프레임을 인코딩/디코딩한다.
+ * 바이너리 포맷은 애플리케이션 ObjectMapper 설정(JavaTimeModule 등)을 그대로 복사해서 사용한다.
+ * Redis와 L1 캐시에는 항상 JSON으로 저장하고, 다른 포맷 세션에 보낼 때만 변환한다.
+ */
+@Component
+public class WireCodecs {
+    private final Map<WireFormat, ObjectMapper> mappers = new EnumMap<>(WireFormat.class);
+    // 포맷별로 한 번 만들어 재사용 (ObjectReader는 스레드 안전)
+    private final Map<WireFormat, ObjectReader> timestampReaders = new EnumMap<>(WireFormat.class);
+
+    public WireCodecs(ObjectMapper objectMapper) {
+        mappers.put(WireFormat.JSON, objectMapper);
+        mappers.put(WireFormat.CBOR, objectMapper.copyWith(new CBORFactory()));
+        mappers.put(WireFormat.SMILE, objectMapper.copyWith(new SmileFactory()));
+        mappers.forEach((format, mapper) -> timestampReaders.put(format, mapper.readerFor(LocalDateTime.class)));
+    }
+
+    // 서버가 지원하는 서브프로토콜 (선호 순서)
+    public List<String> subProtocols() {
+        return Arrays.stream(WireFormat.values())
+                .map(WireFormat::getSubProtocol)
+                .toList();
+    }
+
+    public WireFormat negotiate(WebSocketSession session) {
+        return WireFormat.fromSubProtocol(session.getHandshakeInfo().getSubProtocol());
+    }
+
+    /**
+     * 수신 프레임을 DataBuffer에서 바로 토큰 단위로 읽는다. 문자열 전체나 트리를 만들지 않고,
+     * type을 보고 필요 없는 필드(CHAT이 아닌 프레임의 sender/message 등)는 값을 디코딩하지 않고 건너뛴다.
+     * type보다 앞에 온 필드는 type을 모르므로 모두 읽는다.
+     */
+    public WebSocketMessageDto decode(WireFormat format, DataBuffer payload) throws IOException {
+        try (InputStream in = payload.asInputStream();
+             JsonParser parser = mappers.get(format).createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a message object");
+            }
+            WebSocketMessageDto dto = new WebSocketMessageDto();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "type" -> dto.setType(parser.getText());
+                    case "roomId" -> dto.setRoomId(parser.getText());
+                    case "seq" -> dto.setSeq(parser.getValueAsLong());
+                    case "id" -> dto.setId(idValue(parser));
+                    case "clientMsgId" -> dto.setClientMsgId(parser.getText());
+                    case "sender" -> {
+                        if (needsSender(dto.getType())) {
+                            dto.setSender(parser.getText());
+                        }
+                    }
+                    case "message" -> {
+                        if (needsBody(dto.getType())) {
+                            dto.setMessage(parser.getText());
+                        }
+                    }
+                    case "timestamp" -> {
+                        if (needsTimestamp(dto.getType())) {
+                            dto.setTimestamp(timestampReaders.get(format).readValue(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            return dto;
+        }
+    }
+
+    // ID는 JS Number 정밀도(2^53)를 넘으므로 문자열로 내보낸다. 숫자로 보내는 예전 클라이언트도 받는다
+    private static long idValue(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText());
+            } catch (NumberFormatException e) {
+                throw new JsonParseException(parser, "Invalid message id: " + parser.getText());
+            }
+        }
+        throw new JsonParseException(parser, "Expected a message id, got " + parser.currentToken());
+    }
+
+    // type을 아직 모르면(null) 필요할 수 있으므로 읽는다
+    private static boolean needsBody(String type) {
+        return type == null || "CHAT".equals(type);
+    }
+
+    // TYPING, READ는 본문 없이 보낸 사람만 필요
+    private static boolean needsSender(String type) {
+        return needsBody(type) || "TYPING".equals(type) || "READ".equals(type);
+    }
+
+    private static boolean needsTimestamp(String type) {
+        return type == null || "CHAT".equals(type) || "HISTORY".equals(type);
+    }
+
+    public byte[] encode(WireFormat format, WebSocketMessageDto dto) throws IOException {
+        return mappers.get(format).writeValueAsBytes(dto);
+    }
+
+    /**
+     * JSON 프레임을 다른 포맷으로 변환한다. JSON이면 그대로 감싼다.
+     * DTO를 거치지 않고 토큰 단위로 복사하므로 묶음 전달용 배열 프레임도 그대로 변환된다.
+     */
+    public BroadcastFrame frame(WireFormat format, byte[] json) throws IOException {
+        if (format == WireFormat.JSON) {
+            return BroadcastFrame.wrap(json, format.getFrameType());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = mappers.get(WireFormat.JSON).createParser(json);
+             JsonGenerator generator = mappers.get(format).createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return BroadcastFrame.wrap(out.toByteArray(), format.getFrameType());
+    }
+}
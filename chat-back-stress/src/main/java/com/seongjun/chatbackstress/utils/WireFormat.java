@@ -0,0 +1,46 @@
+package com.seongjun.chatbackstress.utils;
+
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+/**
+ * WebSocket 메시지 인코딩 방식. 클라이언트는 Sec-WebSocket-Protocol 헤더로 선택하며,
+ * 지정하지 않으면 JSON을 사용한다.
+ */
+public enum WireFormat {
+    JSON("chat.json", WebSocketMessage.Type.TEXT),
+    CBOR("chat.cbor", WebSocketMessage.Type.BINARY),
+    SMILE("chat.smile", WebSocketMessage.Type.BINARY);
+
+    private static final WireFormat[] VALUES = values();
+
+    private final String subProtocol;
+    private final WebSocketMessage.Type frameType;
+
+    WireFormat(String subProtocol, WebSocketMessage.Type frameType) {
+        this.subProtocol = subProtocol;
+        this.frameType = frameType;
+    }
+
+    public String getSubProtocol() {
+        return subProtocol;
+    }
+
+    public WebSocketMessage.Type getFrameType() {
+        return frameType;
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static WireFormat fromSubProtocol(String subProtocol) {
+        if (subProtocol != null) {
+            for (WireFormat format : VALUES) {
+                if (format.subProtocol.equals(subProtocol)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -1,8 +1,38 @@
+-- created_at 월 단위 범위 파티션. 월 파티션은 ChatMessagePartitionManager가 만들고 떼어낸다
+-- (DEFAULT 파티션은 파티션 순서 조회를 막으므로 두지 않음)
+-- (파티션 키가 기본 키에 포함되어야 하므로 기본 키는 (id, created_at))
 CREATE TABLE IF NOT EXISTS chat_message (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT NOT NULL, -- 수신 노드가 부여하는 시간순 ID (MessageIdGenerator)
     room_id VARCHAR(255) NOT NULL,
     sender VARCHAR(255) NOT NULL,
     message TEXT NOT NULL,
     timestamp TIMESTAMP NOT NULL,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-); 
\ No newline at end of file
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, -- ID의 시각과 같음
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+-- 방별 순번 (재연결 시 마지막으로 받은 순번 이후만 전송)
+ALTER TABLE chat_message ADD COLUMN IF NOT EXISTS seq BIGINT;
+
+-- 예전 BIGSERIAL 테이블이면 시퀀스 기본값을 제거 (기존 ID는 새 ID보다 작으므로 순서는 유지됨)
+ALTER TABLE chat_message ALTER COLUMN id DROP DEFAULT;
+
+-- 방별 최근 이력 조회 / keyset 페이지네이션용. 파티션 테이블에 만들면 모든 파티션에 같은 인덱스가 생긴다
+CREATE INDEX IF NOT EXISTS idx_chat_message_room_created
+    ON chat_message (room_id, created_at DESC, id DESC);
+
+-- 파티션 이전 테이블(chat_message_legacy)에서 옮긴 마지막 ID. 배치마다 갱신되므로 재시작하면 이어서 옮긴다
+CREATE TABLE IF NOT EXISTS chat_message_migration (
+    source VARCHAR(255) PRIMARY KEY,
+    last_id BIGINT NOT NULL,
+    done BOOLEAN NOT NULL DEFAULT FALSE
+);
+
+-- 방/사용자별 마지막으로 읽은 순번 (READ를 모아서 주기적으로 upsert)
+CREATE TABLE IF NOT EXISTS chat_read_receipt (
+    room_id VARCHAR(255) NOT NULL,
+    user_id VARCHAR(255) NOT NULL,
+    last_read_seq BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (room_id, user_id)
+);
@@ -0,0 +1,91 @@
+package com.seongjun.chatbackstress.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seongjun.chatbackstress.entity.ChatMessage;
+import com.seongjun.chatbackstress.repository.ChatMessageRepository;
+import com.seongjun.chatbackstress.utils.MessageIdGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 이전 메시지 페이지 조회. 생성기 ID는 ID에서 created_at을 바로 꺼내고,
+ * 예전 BIGSERIAL ID는 먼저 그 행의 created_at을 찾아 (created_at, id) 커서로 쓰는지 확인한다.
+ */
+class ChatServiceTest {
+    private static final String ROOM = "room-1";
+
+    private ChatMessageRepository repository;
+    private ChatService chatService;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ChatMessageRepository.class);
+        chatService = new ChatService(repository, null, null, new ObjectMapper(), null);
+    }
+
+    @Test
+    void generatedIdUsesTimestampFromIdAsCursor() {
+        long beforeId = new MessageIdGenerator(1).nextId();
+        LocalDateTime createdAt = MessageIdGenerator.createdAtOf(beforeId);
+        ChatMessage older = ChatMessage.builder().id(beforeId - 1).roomId(ROOM).build();
+        when(repository.findPageBeforeId(ROOM, createdAt, beforeId, 30)).thenReturn(Flux.just(older));
+
+        StepVerifier.create(chatService.getMessagesBeforeId(ROOM, beforeId, 30))
+                .expectNext(older)
+                .verifyComplete();
+
+        verify(repository, never()).findCreatedAt(anyString(), anyLong());
+    }
+
+    @Test
+    void legacyIdLooksUpItsCreatedAtFirst() {
+        long legacyId = 42;
+        LocalDateTime createdAt = LocalDateTime.of(2024, 11, 3, 9, 15);
+        ChatMessage older = ChatMessage.builder().id(41L).roomId(ROOM).build();
+        when(repository.findCreatedAt(ROOM, legacyId)).thenReturn(Mono.just(createdAt));
+        when(repository.findPageBeforeId(ROOM, createdAt, legacyId, 30)).thenReturn(Flux.just(older));
+
+        StepVerifier.create(chatService.getMessagesBeforeId(ROOM, legacyId, 30))
+                .expectNext(older)
+                .verifyComplete();
+
+        verify(repository).findPageBeforeId(ROOM, createdAt, legacyId, 30);
+    }
+
+    @Test
+    void unknownLegacyIdReturnsEmptyPage() {
+        when(repository.findCreatedAt(ROOM, 42L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(chatService.getMessagesBeforeId(ROOM, 42L, 30))
+                .verifyComplete();
+
+        verify(repository, never()).findPageBeforeId(anyString(), any(), anyLong(), anyInt());
+    }
+
+    @Test
+    void pageSizeIsCappedAtRetention() {
+        long legacyId = 42;
+        LocalDateTime createdAt = LocalDateTime.of(2024, 11, 3, 9, 15);
+        when(repository.findCreatedAt(ROOM, legacyId)).thenReturn(Mono.just(createdAt));
+        when(repository.findPageBeforeId(ROOM, createdAt, legacyId, ChatService.MESSAGE_RETENTION)).thenReturn(Flux.empty());
+
+        StepVerifier.create(chatService.getMessagesBeforeId(ROOM, legacyId, 10_000))
+                .verifyComplete();
+
+        verify(repository).findPageBeforeId(ROOM, createdAt, legacyId, ChatService.MESSAGE_RETENTION);
+    }
+}
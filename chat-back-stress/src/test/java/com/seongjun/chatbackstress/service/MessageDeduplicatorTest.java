@@ -0,0 +1,163 @@
+package com.seongjun.chatbackstress.service;
+
+import com.seongjun.chatbackstress.dto.WebSocketMessageDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * clientMsgId 중복 검사. 노드 안의 집합에서 먼저 거르고, 처음 보는 ID만 브로커(Redis SET NX)에 묻는다.
+ * 브로커에 닿지 못하면 메시지를 버리지 않고, forget 뒤에는 같은 ID를 다시 받아들이는지 확인한다.
+ */
+class MessageDeduplicatorTest {
+    private static final Duration WINDOW = Duration.ofMinutes(5);
+
+    private MessageBroker broker;
+    private SimpleMeterRegistry meterRegistry;
+    private MessageDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        broker = mock(MessageBroker.class);
+        when(broker.markSeen(anyString(), any())).thenReturn(Mono.just(true));
+        when(broker.forgetSeen(anyString())).thenReturn(Mono.empty());
+        meterRegistry = new SimpleMeterRegistry();
+        deduplicator = new MessageDeduplicator(broker, meterRegistry, true, WINDOW, 100_000);
+    }
+
+    @Test
+    void firstMessageIsMarkedOnBroker() {
+        StepVerifier.create(deduplicator.firstSeen(chat("c-1")))
+                .expectNext(true)
+                .verifyComplete();
+
+        verify(broker).markSeen("room-1:alice:c-1", WINDOW);
+    }
+
+    @Test
+    void localDuplicateIsDroppedWithoutAskingBroker() {
+        deduplicator.firstSeen(chat("c-1")).block();
+
+        StepVerifier.create(deduplicator.firstSeen(chat("c-1")))
+                .expectNext(false)
+                .verifyComplete();
+
+        verify(broker, times(1)).markSeen(anyString(), any());
+        assertThat(duplicates("local")).isEqualTo(1);
+    }
+
+    @Test
+    void duplicateSeenByAnotherNodeIsDropped() {
+        when(broker.markSeen("room-1:alice:c-1", WINDOW)).thenReturn(Mono.just(false));
+
+        StepVerifier.create(deduplicator.firstSeen(chat("c-1")))
+                .expectNext(false)
+                .verifyComplete();
+
+        assertThat(duplicates("broker")).isEqualTo(1);
+    }
+
+    @Test
+    void sameClientIdFromAnotherSenderOrRoomIsNotDuplicate() {
+        deduplicator.firstSeen(chat("c-1")).block();
+
+        WebSocketMessageDto otherSender = chat("c-1");
+        otherSender.setSender("bob");
+        WebSocketMessageDto otherRoom = chat("c-1");
+        otherRoom.setRoomId("room-2");
+
+        assertThat(deduplicator.firstSeen(otherSender).block()).isTrue();
+        assertThat(deduplicator.firstSeen(otherRoom).block()).isTrue();
+    }
+
+    @Test
+    void messageWithoutClientIdIsNotChecked() {
+        assertThat(deduplicator.firstSeen(chat(null)).block()).isTrue();
+        assertThat(deduplicator.firstSeen(chat("")).block()).isTrue();
+        assertThat(deduplicator.firstSeen(chat(null)).block()).isTrue();
+
+        verify(broker, never()).markSeen(anyString(), any());
+    }
+
+    @Test
+    void brokerFailureLetsMessageThrough() {
+        when(broker.markSeen(anyString(), any())).thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        StepVerifier.create(deduplicator.firstSeen(chat("c-1")))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void emptyBrokerReplyLetsMessageThrough() {
+        when(broker.markSeen(anyString(), any())).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.firstSeen(chat("c-1")))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void forgetClearsLocalAndBrokerMarks() {
+        deduplicator.firstSeen(chat("c-1")).block();
+
+        StepVerifier.create(deduplicator.forget("room-1", "alice", "c-1"))
+                .verifyComplete();
+        verify(broker).forgetSeen("room-1:alice:c-1");
+
+        // 재전송은 다시 처음 보는 메시지로 처리된다
+        assertThat(deduplicator.firstSeen(chat("c-1")).block()).isTrue();
+        verify(broker, times(2)).markSeen("room-1:alice:c-1", WINDOW);
+    }
+
+    @Test
+    void forgetSwallowsBrokerFailure() {
+        when(broker.forgetSeen(anyString())).thenReturn(Mono.error(new IllegalStateException("redis down")));
+        deduplicator.firstSeen(chat("c-1")).block();
+
+        StepVerifier.create(deduplicator.forget(chat("c-1")))
+                .verifyComplete();
+
+        // 노드 안의 표시는 브로커 실패와 상관없이 지워진다
+        assertThat(deduplicator.firstSeen(chat("c-1")).block()).isTrue();
+    }
+
+    @Test
+    void disabledDeduplicatorNeverTouchesBroker() {
+        MessageDeduplicator disabled = new MessageDeduplicator(broker, new SimpleMeterRegistry(), false, WINDOW, 100_000);
+
+        assertThat(disabled.firstSeen(chat("c-1")).block()).isTrue();
+        assertThat(disabled.firstSeen(chat("c-1")).block()).isTrue();
+        disabled.forget(chat("c-1")).block();
+
+        verify(broker, never()).markSeen(anyString(), any());
+        verify(broker, never()).forgetSeen(anyString());
+    }
+
+    private double duplicates(String source) {
+        return meterRegistry.get("chat.dedup.duplicates").tag("source", source).counter().count();
+    }
+
+    private static WebSocketMessageDto chat(String clientMsgId) {
+        return WebSocketMessageDto.builder()
+                .type("CHAT")
+                .roomId("room-1")
+                .sender("alice")
+                .message("hello")
+                .clientMsgId(clientMsgId)
+                .build();
+    }
+}
@@ -0,0 +1,173 @@
+package com.seongjun.chatbackstress.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 로컬 Redis(localhost:6379)가 필요하다. 연결할 수 없으면 건너뛴다.
+ * 샤드 스트림을 읽는 연결을 발행 도중 강제로 끊어도 방마다 모든 메시지를 순서대로, 중복 없이 받는지 확인한다.
+ */
+@EnabledIf("redisAvailable")
+class RedisStreamBrokerTest {
+    private static final Logger log = LoggerFactory.getLogger(RedisStreamBrokerTest.class);
+    private static final int MESSAGES = 2000;
+    private static final int ROOMS = 10;
+    private static final int SHARDS = 4;
+    private static final Duration MAX_CATCH_UP = Duration.ofSeconds(5);
+
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+    private RedisStreamBroker broker;
+
+    static boolean redisAvailable() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", 6379), 200);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory("localhost", 6379);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        deleteShards();
+        broker = new RedisStreamBroker(connectionFactory, redisTemplate, new SimpleMeterRegistry(),
+                "streams", 100000, Duration.ofMillis(100), 100, SHARDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+        deleteShards();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void resumesFromLastIdWithoutLossWhenReaderConnectionIsKilled() throws Exception {
+        Map<String, List<String>> received = new ConcurrentHashMap<>();
+        AtomicInteger total = new AtomicInteger();
+        broker.start((roomId, json, receivedAt) -> {
+            received.computeIfAbsent(roomId, id -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(new String(json, StandardCharsets.UTF_8));
+            total.incrementAndGet();
+        });
+        for (int room = 0; room < ROOMS; room++) {
+            broker.join("room-" + room);
+        }
+        Thread.sleep(500); // 샤드마다 시작 오프셋을 읽을 때까지 대기
+
+        for (int i = 0; i < MESSAGES; i++) {
+            broker.publish("room-" + (i % ROOMS), "message-" + i, System.currentTimeMillis()).block();
+            // 발행 도중 두 번 읽기 연결을 끊는다
+            if (i == MESSAGES / 3 || i == MESSAGES * 2 / 3) {
+                int killed = killStreamReaders();
+                log.info("Killed {} stream reader connection(s) after message {}", killed, i);
+            }
+        }
+
+        long publishedAt = System.nanoTime();
+        while (total.get() < MESSAGES && System.nanoTime() - publishedAt < MAX_CATCH_UP.toNanos() * 2) {
+            Thread.sleep(10);
+        }
+        Duration catchUp = Duration.ofNanos(System.nanoTime() - publishedAt);
+        log.info("Received {} of {} messages, caught up {} ms after the last publish",
+                total.get(), MESSAGES, catchUp.toMillis());
+
+        // 순서는 샤드 안에서만 보장되므로 방별로 확인한다
+        for (int room = 0; room < ROOMS; room++) {
+            int r = room;
+            List<String> expected = IntStream.range(0, MESSAGES).filter(i -> i % ROOMS == r)
+                    .mapToObj(i -> "message-" + i).toList();
+            assertThat(received.get("room-" + room)).containsExactlyElementsOf(expected);
+        }
+        assertThat(catchUp).isLessThan(MAX_CATCH_UP);
+    }
+
+    @Test
+    void readsOnlyShardsWithJoinedRooms() throws Exception {
+        Map<String, List<String>> received = new ConcurrentHashMap<>();
+        broker.start((roomId, json, receivedAt) -> received
+                .computeIfAbsent(roomId, id -> Collections.synchronizedList(new ArrayList<>()))
+                .add(new String(json, StandardCharsets.UTF_8)));
+        String joined = "room-0";
+        String other = IntStream.range(1, 100).mapToObj(i -> "room-" + i)
+                .filter(roomId -> broker.shardOf(roomId) != broker.shardOf(joined))
+                .findFirst().orElseThrow();
+        broker.join(joined);
+        Thread.sleep(500);
+
+        broker.publish(joined, "joined", 0).block();
+        broker.publish(other, "other", 0).block();
+        Thread.sleep(500);
+
+        assertThat(received.get(joined)).containsExactly("joined");
+        assertThat(received).doesNotContainKey(other);
+    }
+
+    @Test
+    void deliversRecordsPublishedRightAfterJoin() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        broker.start((roomId, json, receivedAt) -> received.add(new String(json, StandardCharsets.UTF_8)));
+
+        // 샤드 읽기가 시작되기를 기다리지 않고 바로 발행해도 빠지지 않아야 한다
+        broker.join("room-0");
+        broker.publish("room-0", "first", 0).block();
+
+        long deadline = System.nanoTime() + MAX_CATCH_UP.toNanos();
+        while (received.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(received).containsExactly("first");
+    }
+
+    private void deleteShards() {
+        for (int shard = 0; shard < SHARDS; shard++) {
+            redisTemplate.delete(RedisStreamBroker.streamKey(shard)).block();
+        }
+    }
+
+    // 현재 XREAD를 실행 중인 클라이언트 연결을 서버 쪽에서 끊는다
+    private int killStreamReaders() throws Exception {
+        try (ReactiveRedisConnection connection = connectionFactory.getReactiveConnection()) {
+            return connection.serverCommands().getClientList()
+                    .filter(client -> "xread".equalsIgnoreCase(client.get("cmd")))
+                    .flatMap(client -> {
+                        String address = client.getAddressPort();
+                        int separator = address.lastIndexOf(':');
+                        return connection.serverCommands().killClient(
+                                address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+                    })
+                    .count()
+                    .blockOptional()
+                    .orElse(0L)
+                    .intValue();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.seongjun.chatbackstress.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 메시지 ID의 비트 배치(시각 41 / 노드 10 / 순번 12), 노드 안의 단조 증가, 예전 BIGSERIAL ID와의 경계를 확인한다.
+ */
+class MessageIdGeneratorTest {
+
+    @Test
+    void idsIncreaseEvenWhenOneMillisecondRunsOutOfSequences() {
+        MessageIdGenerator generator = new MessageIdGenerator(3);
+        // ms당 순번(4096개)을 여러 번 넘길 만큼 연속으로 만든다
+        long previous = generator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            long id = generator.nextId();
+            assertThat(id).isGreaterThan(previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    void concurrentCallersNeverGetTheSameId() throws InterruptedException {
+        MessageIdGenerator generator = new MessageIdGenerator(3);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ids).hasSize(threads * perThread);
+    }
+
+    @Test
+    void idCarriesNodeAndCurrentTime() {
+        long before = System.currentTimeMillis();
+        long id = new MessageIdGenerator(517).nextId();
+        long after = System.currentTimeMillis();
+
+        assertThat((id >>> MessageIdGenerator.SEQUENCE_BITS) & MessageIdGenerator.MAX_NODE).isEqualTo(517);
+        // 같은 ms의 순번을 다 쓰면 다음 ms를 빌리므로 1ms 여유를 둔다
+        assertThat(MessageIdGenerator.timestampOf(id)).isBetween(before, after + 1);
+        assertThat(MessageIdGenerator.isGenerated(id)).isTrue();
+    }
+
+    @Test
+    void createdAtOfIsUtcRegardlessOfSystemZone() {
+        long millis = Instant.parse("2025-06-30T23:30:00Z").toEpochMilli() - MessageIdGenerator.EPOCH;
+        long id = (millis << (MessageIdGenerator.NODE_BITS + MessageIdGenerator.SEQUENCE_BITS))
+                | (5L << MessageIdGenerator.SEQUENCE_BITS)
+                | 7;
+
+        TimeZone original = TimeZone.getDefault();
+        try {
+            // UTC로는 6월이지만 서울 시간으로는 7월. 파티션 키가 시스템 시간대를 따르면 다른 달로 들어간다
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Seoul"));
+            assertThat(MessageIdGenerator.createdAtOf(id)).isEqualTo(LocalDateTime.of(2025, 6, 30, 23, 30));
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    void isGeneratedSeparatesLegacySerialIds() {
+        assertThat(MessageIdGenerator.isGenerated(1)).isFalse();
+        assertThat(MessageIdGenerator.isGenerated(42)).isFalse();
+        assertThat(MessageIdGenerator.isGenerated((1L << 40) - 1)).isFalse();
+        assertThat(MessageIdGenerator.isGenerated(1L << 40)).isTrue();
+    }
+
+    @Test
+    void rejectsNodeIdOutsideTenBits() {
+        assertThatThrownBy(() -> new MessageIdGenerator(MessageIdGenerator.MAX_NODE + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(new MessageIdGenerator(MessageIdGenerator.MAX_NODE).nextId()).isPositive();
+    }
+}